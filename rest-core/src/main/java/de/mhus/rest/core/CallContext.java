@@ -17,19 +17,24 @@ package de.mhus.rest.core;
 
 import java.io.InputStream;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import de.mhus.lib.core.IProperties;
 import de.mhus.lib.core.M;
 import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MProperties;
+import de.mhus.lib.core.MString;
 import de.mhus.lib.core.io.http.MHttp;
 import de.mhus.lib.errors.NotSupportedException;
 import de.mhus.rest.core.api.Node;
 import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.api.RestException;
+import de.mhus.rest.core.multipart.MultipartReader;
 
 public class CallContext {
 
@@ -43,6 +48,11 @@ public class CallContext {
     private Object orgResponse;
     private String nodeIdent;
     private boolean returnTrace;
+    private RestApi restApi;
+    private IProperties parameters;
+    private long requestId;
+    private RequestBody body;
+    private Boolean bodyOverlay;
 
     public CallContext(
             Object orgRequest,
@@ -57,49 +67,70 @@ public class CallContext {
         this.returnTrace = returnTrace;
     }
 
+    /**
+     * Return true if the call is an action. Same source as getAction().
+     *
+     * @return true if an action is requested
+     */
     public boolean hasAction() {
-        return req.getParameter(ACTION_PARAMETER) != null;
+        return getAction() != null;
     }
 
+    /**
+     * Return the requested action. The action is read from the request parameters only and never
+     * from the body overlay, the dispatcher and the permission check must not consume the body
+     * before the node is able to stream it.
+     *
+     * @return The action or null
+     */
     public String getAction() {
-        return getParameter(ACTION_PARAMETER);
+        return req.getParameter(ACTION_PARAMETER);
     }
 
     public String getParameter(String key) {
         String val = req.getParameter(key);
+        if (val == null && isBodyOverlay()) val = getBody().getParameter(key);
         return val;
     }
 
     public int getParameter(String key, int def) {
-        String val = req.getParameter(key);
+        String val = getParameter(key);
         return MCast.toint(val, def);
     }
 
     public long getParameter(String key, long def) {
-        String val = req.getParameter(key);
+        String val = getParameter(key);
         return MCast.tolong(val, def);
     }
 
     public boolean getParameter(String key, boolean def) {
-        String val = req.getParameter(key);
+        String val = getParameter(key);
         return MCast.toboolean(val, def);
     }
 
     public Date getParameterDate(String key, Date def) {
-        String val = req.getParameter(key);
+        String val = getParameter(key);
         return MCast.toDate(val, def);
     }
 
     public String getParameter(String key, String def) {
-        String val = req.getParameter(key);
+        String val = getParameter(key);
         if (val == null) return def;
         return val;
     }
 
+    /**
+     * Return all request parameters. The properties are created once per call and shared.
+     *
+     * @return The parameters
+     */
     public IProperties getParameters() {
-        MProperties out = new MProperties();
-        for (String n : getParameterNames()) out.put(n, getParameter(n));
-        return out;
+        if (parameters == null) {
+            MProperties out = new MProperties();
+            for (String n : getParameterNames()) out.put(n, getParameter(n));
+            parameters = out;
+        }
+        return parameters;
     }
 
     public Object get(String key) {
@@ -128,7 +159,51 @@ public class CallContext {
     }
 
     public Set<String> getParameterNames() {
-        return req.getParameterNames();
+        if (!isBodyOverlay()) return req.getParameterNames();
+        Set<String> bodyNames = getBody().getParameterNames();
+        if (bodyNames.isEmpty()) return req.getParameterNames();
+        LinkedHashSet<String> names = new LinkedHashSet<>(req.getParameterNames());
+        names.addAll(bodyNames);
+        return names;
+    }
+
+    /**
+     * Return the payload of the request. The body is parsed lazy and only once.
+     *
+     * @return The body
+     */
+    public RequestBody getBody() {
+        if (body == null) {
+            String contentType = getRequestHeader("Content-Type");
+            if (contentType == null) contentType = req.getHeader("Content-Type");
+            body = new RequestBody(req, contentType);
+        }
+        return body;
+    }
+
+    /**
+     * Return the streaming parser of a multipart/form-data request. See RequestBody.getMultipart().
+     *
+     * @return The reader
+     * @throws RestException If the request is not multipart
+     */
+    public MultipartReader getMultipart() throws RestException {
+        return getBody().getMultipart();
+    }
+
+    /** Release resources bound to the call, called at the end of the request. */
+    public void release() {
+        if (body != null) body.close();
+    }
+
+    private boolean isBodyOverlay() {
+        if (bodyOverlay == null) {
+            bodyOverlay =
+                    RequestBody.CFG_PARAMETER_OVERLAY.value()
+                            && method != MHttp.METHOD.GET
+                            && (getBody().isJson() || getBody().isForm());
+        }
+        return bodyOverlay;
     }
 
     public MHttp.METHOD getMethod() {
@@ -136,8 +211,34 @@ public class CallContext {
     }
 
     public Node lookup(List<String> parts, Class<? extends Node> lastNode) throws Exception {
-        RestApi restService = M.l(RestApi.class);
-        return restService.lookup(parts, lastNode, this);
+        return getRestApi().lookup(parts, lastNode, this);
+    }
+
+    public Node lookup(PathCursor parts, Class<? extends Node> lastNode) throws Exception {
+        return getRestApi().lookup(parts, lastNode, this);
+    }
+
+    public RestApi getRestApi() {
+        if (restApi == null) restApi = M.l(RestApi.class);
+        return restApi;
+    }
+
+    public void setRestApi(RestApi restApi) {
+        this.restApi = restApi;
+    }
+
+    /**
+     * Return the unique id of the request. The id is created by RestIdGenerator and returned as
+     * _request in the results to correlate them with the logs.
+     *
+     * @return The id or 0 if not set
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
     }
 
     public RestAuthorisation getAuthorisation() {
@@ -148,10 +249,41 @@ public class CallContext {
         this.authorisation = authorisation;
     }
 
+    /**
+     * Return the raw load of the request. Use getBody() to read a limited stream or to parse the
+     * content. If the body was already read by getBody() the stream is consumed.
+     *
+     * @return The load as stream or null
+     */
     public InputStream getLoadContent() {
         return req.getLoadContent();
     }
 
+    /**
+     * Return a header of the http request or null if not set or the call is not a http request.
+     *
+     * @param name The name of the header
+     * @return The value or null
+     */
+    public String getRequestHeader(String name) {
+        if (orgRequest instanceof HttpServletRequest)
+            return ((HttpServletRequest) orgRequest).getHeader(name);
+        return null;
+    }
+
+    /**
+     * Return the character encoding of the response, UTF-8 if not known.
+     *
+     * @return The encoding
+     */
+    public String getResponseEncoding() {
+        if (orgResponse instanceof HttpServletResponse) {
+            String charset = ((HttpServletResponse) orgResponse).getCharacterEncoding();
+            if (charset != null) return charset;
+        }
+        return MString.CHARSET_UTF_8;
+    }
+
     public void setResponseEncoding(String charset) {
         if (orgResponse == null || !(orgResponse instanceof HttpServletResponse))
             throw new NotSupportedException("response is not HttpServletResponse");
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.api.RestPriority;
+
+/**
+ * Fair dispatching of requests to the nodes. A fixed count of requests is processed concurrently,
+ * further requests wait in a queue per principal. Free slots are given to the waiting requests of
+ * the highest priority class, inside of a class round-robin over the principals. A single client
+ * flooding requests only delays its own requests.
+ */
+public class FairScheduler {
+
+    public static final CfgBoolean CFG_ENABLED =
+            new CfgBoolean(RestApi.class, "fairScheduler", false);
+    public static final CfgInt CFG_SLOTS = new CfgInt(RestApi.class, "fairSchedulerSlots", 32);
+    public static final CfgInt CFG_MAX_QUEUE =
+            new CfgInt(RestApi.class, "fairSchedulerMaxQueue", 1000);
+    public static final CfgInt CFG_MAX_QUEUE_PRINCIPAL =
+            new CfgInt(RestApi.class, "fairSchedulerMaxQueuePerPrincipal", 100);
+    public static final CfgLong CFG_TIMEOUT =
+            new CfgLong(RestApi.class, "fairSchedulerTimeout", 10000);
+
+    private static final Object ANONYMOUS = new Object();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Level[] levels = new Level[RestPriority.values().length];
+    private final LongAdder rejected = new LongAdder();
+    private int running;
+    private int waiting;
+
+    public FairScheduler() {
+        for (int i = 0; i < levels.length; i++) levels[i] = new Level();
+    }
+
+    /**
+     * Wait for a free slot. A successful call must be followed by release().
+     *
+     * @param principal The principal of the subject or null
+     * @param priority The priority class
+     * @return true if the slot is acquired, false if the queue is full, the timeout is reached or
+     *     the thread is interrupted
+     */
+    public boolean acquire(Object principal, RestPriority priority) {
+        if (principal == null) principal = ANONYMOUS;
+        if (priority == null || priority == RestPriority.DEFAULT) priority = RestPriority.NORMAL;
+        lock.lock();
+        try {
+            if (waiting == 0 && running < CFG_SLOTS.value()) {
+                running++;
+                return true;
+            }
+            Level level = levels[priority.ordinal()];
+            ArrayDeque<Ticket> queue = level.queues.get(principal);
+            if (waiting >= CFG_MAX_QUEUE.value()
+                    || queue != null && queue.size() >= CFG_MAX_QUEUE_PRINCIPAL.value()) {
+                rejected.increment();
+                return false;
+            }
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                level.queues.put(principal, queue);
+                level.rotation.add(principal);
+            }
+            Ticket ticket = new Ticket(principal);
+            queue.add(ticket);
+            waiting++;
+            long nanos = TimeUnit.MILLISECONDS.toNanos(CFG_TIMEOUT.value());
+            try {
+                while (!ticket.granted) {
+                    if (nanos <= 0) break;
+                    nanos = ticket.condition.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (ticket.granted) return true;
+            level.remove(ticket);
+            waiting--;
+            rejected.increment();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Release the slot and give it to the next waiting request. */
+    public void release() {
+        lock.lock();
+        try {
+            running--;
+            while (waiting > 0 && running < CFG_SLOTS.value()) {
+                Ticket ticket = next();
+                if (ticket == null) break;
+                waiting--;
+                running++;
+                ticket.granted = true;
+                ticket.condition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Ticket next() {
+        for (Level level : levels) {
+            Object principal = level.rotation.poll();
+            if (principal == null) continue;
+            ArrayDeque<Ticket> queue = level.queues.get(principal);
+            Ticket ticket = queue.poll();
+            if (queue.isEmpty()) level.queues.remove(principal);
+            else level.rotation.add(principal);
+            return ticket;
+        }
+        return null;
+    }
+
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private static class Level {
+
+        private final HashMap<Object, ArrayDeque<Ticket>> queues = new HashMap<>();
+        private final ArrayDeque<Object> rotation = new ArrayDeque<>();
+
+        private void remove(Ticket ticket) {
+            ArrayDeque<Ticket> queue = queues.get(ticket.principal);
+            if (queue == null) return;
+            queue.remove(ticket);
+            if (queue.isEmpty()) {
+                queues.remove(ticket.principal);
+                rotation.remove(ticket.principal);
+            }
+        }
+    }
+
+    private class Ticket {
+
+        private final Object principal;
+        private final Condition condition = lock.newCondition();
+        private boolean granted;
+
+        private Ticket(Object principal) {
+            this.principal = principal;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Walks the segments of a request path by index. The segments are not extracted from the path
+ * unless a node asks for a segment as string. The first segment (before the first slash) is
+ * skipped and trailing slashes are ignored, same as splitting the path and removing the first
+ * element.
+ */
+public class PathCursor {
+
+    private final String path;
+    private final int end;
+    private int pos;
+
+    public PathCursor(String path) {
+        this.path = path;
+        int e = path.length();
+        while (e > 0 && path.charAt(e - 1) == '/') e--;
+        end = e;
+        int first = path.indexOf('/');
+        pos = first < 0 ? end : first + 1;
+    }
+
+    public boolean hasNext() {
+        return pos < end;
+    }
+
+    /**
+     * Return the current segment as string and move to the next segment.
+     *
+     * @return The segment or null if there are no more segments
+     */
+    public String next() {
+        if (!hasNext()) return null;
+        int e = segmentEnd();
+        String out = path.substring(pos, e);
+        pos = e + 1;
+        return out;
+    }
+
+    /** Move to the next segment without extracting the current one. */
+    public void skip() {
+        if (!hasNext()) return;
+        pos = segmentEnd() + 1;
+    }
+
+    /**
+     * Return the current segment without moving the cursor.
+     *
+     * @return The segment or null
+     */
+    public String peek() {
+        if (!hasNext()) return null;
+        return path.substring(pos, segmentEnd());
+    }
+
+    public int segmentStart() {
+        return pos;
+    }
+
+    public int segmentEnd() {
+        int i = path.indexOf('/', pos);
+        return i < 0 || i > end ? end : i;
+    }
+
+    public int segmentLength() {
+        return segmentEnd() - pos;
+    }
+
+    /**
+     * Return the hash code of the current segment. It's the same value as the hash code of the
+     * segment as string.
+     *
+     * @return The hash code
+     */
+    public int segmentHash() {
+        int e = segmentEnd();
+        int h = 0;
+        for (int i = pos; i < e; i++) h = 31 * h + path.charAt(i);
+        return h;
+    }
+
+    public boolean segmentEquals(String name) {
+        int len = segmentLength();
+        return name.length() == len && path.regionMatches(pos, name, 0, len);
+    }
+
+    /**
+     * Return the count of the remaining segments.
+     *
+     * @return Count of segments
+     */
+    public int size() {
+        int cnt = 0;
+        int p = pos;
+        while (p < end) {
+            cnt++;
+            int i = path.indexOf('/', p);
+            p = (i < 0 || i > end ? end : i) + 1;
+        }
+        return cnt;
+    }
+
+    /**
+     * Return the remaining segments as list and move the cursor to the end. Used to call nodes
+     * working with list based lookups.
+     *
+     * @return The remaining segments
+     */
+    public List<String> toList() {
+        LinkedList<String> out = new LinkedList<>();
+        while (hasNext()) out.add(next());
+        return out;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Return the not processed part of the path.
+     *
+     * @return The remaining path, can be empty
+     */
+    public String getRemaining() {
+        if (!hasNext()) return "";
+        return path.substring(pos, end);
+    }
+
+    @Override
+    public String toString() {
+        return path + "@" + pos;
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.mhus.lib.core.MCast;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.api.RestException;
+import de.mhus.rest.core.multipart.MultipartReader;
+import de.mhus.rest.core.util.PojoBinder;
+
+/**
+ * The payload of a request. The body is read lazy and at most once. It can be consumed as size
+ * limited stream, as streaming JsonParser, as parsed JsonNode, as form fields or bound to a pojo.
+ * The parsed content is cached, the stream or parser can only be requested once if the body was
+ * not parsed before.
+ *
+ * <p>Multipart content is parsed streaming by getMultipart() and limited by the multipart
+ * settings instead of bodyMaxSize.
+ *
+ * <p>If 'bodyParameterOverlay' is enabled, the top level values of a json object or the form
+ * fields are returned by CallContext.getParameter() if the parameter is not part of the query.
+ * The body is parsed by the first overlay lookup, a node using the overlay can't stream the body
+ * afterwards. The '_action' parameter is never taken from the body.
+ */
+public class RequestBody implements AutoCloseable {
+
+    public static final CfgLong CFG_MAX_SIZE =
+            new CfgLong(RestApi.class, "bodyMaxSize", 10 * 1024 * 1024);
+    public static final CfgBoolean CFG_PARAMETER_OVERLAY =
+            new CfgBoolean(RestApi.class, "bodyParameterOverlay", false);
+
+    public static final String CONTENT_TYPE_FORM = "application/x-www-form-urlencoded";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final RestRequest request;
+    private final String contentType;
+    private final long maxSize;
+    private boolean consumed;
+    private JsonNode json;
+    private Map<String, String> form;
+    private RestException error;
+    private MultipartReader multipart;
+
+    public RequestBody(RestRequest request, String contentType) {
+        this(request, contentType, CFG_MAX_SIZE.value());
+    }
+
+    public RequestBody(RestRequest request, String contentType, long maxSize) {
+        this.request = request;
+        this.contentType = contentType == null ? null : contentType.toLowerCase();
+        this.maxSize = maxSize;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Return true if the content type is json (application/json or application/*+json).
+     *
+     * @return true for json content
+     */
+    public boolean isJson() {
+        if (contentType == null) return false;
+        int pos = contentType.indexOf(';');
+        return (pos < 0 ? contentType : contentType.substring(0, pos)).trim().endsWith("json");
+    }
+
+    public boolean isForm() {
+        return contentType != null && contentType.startsWith(CONTENT_TYPE_FORM);
+    }
+
+    public boolean isMultipart() {
+        return MultipartReader.getBoundary(contentType) != null;
+    }
+
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    /**
+     * Return the body as stream. The stream fails with a LimitExceededException if more then the
+     * allowed size is read. The exception is answered with 413 if it is not caught by the node.
+     *
+     * @return The stream or null if the request has no load
+     * @throws RestException If the announced content length is too large
+     */
+    public InputStream getStream() throws RestException {
+        if (consumed) throw new IllegalStateException("request body already consumed");
+        consumed = true;
+        long length = MCast.tolong(request.getHeader("Content-Length"), -1);
+        if (maxSize > 0 && length > maxSize) throw tooLarge();
+        InputStream is = request.getLoadContent();
+        if (is == null || maxSize <= 0) return is;
+        return new LimitedInputStream(is, maxSize);
+    }
+
+    /**
+     * Return a streaming parser for the json body. If the body was parsed before, the parser
+     * traverses the parsed tree.
+     *
+     * @return The parser
+     * @throws RestException If the body can't be read
+     */
+    public JsonParser getParser() throws RestException {
+        if (json != null) return json.traverse(MAPPER);
+        InputStream is = getStream();
+        if (is == null) return MAPPER.getNodeFactory().missingNode().traverse(MAPPER);
+        try {
+            return MAPPER.getFactory().createParser(is);
+        } catch (IOException e) {
+            throw new RestException(
+                    "request body invalid", HttpServletResponse.SC_BAD_REQUEST, null);
+        }
+    }
+
+    /**
+     * Return the parsed json body. The body is parsed once.
+     *
+     * @return The json or a missing node if the body is empty
+     * @throws RestException If the body is not valid json or too large
+     */
+    public JsonNode getJson() throws RestException {
+        if (error != null) throw error;
+        if (json != null) return json;
+        InputStream is = getStream();
+        try {
+            JsonNode node = is == null ? null : MAPPER.readTree(is);
+            json = node == null ? MAPPER.getNodeFactory().missingNode() : node;
+        } catch (LimitExceededException e) {
+            error = tooLarge();
+            throw error;
+        } catch (JsonProcessingException e) {
+            error =
+                    new RestException(
+                            "request body invalid: " + e.getOriginalMessage(),
+                            HttpServletResponse.SC_BAD_REQUEST,
+                            null);
+            throw error;
+        } catch (IOException e) {
+            error =
+                    new RestException(
+                            "request body not readable", HttpServletResponse.SC_BAD_REQUEST, null);
+            throw error;
+        }
+        return json;
+    }
+
+    /**
+     * Return the fields of an url encoded form body. The body is parsed once.
+     *
+     * @return The fields, empty if the body is not a form
+     * @throws RestException If the body can't be read or is too large
+     */
+    public Map<String, String> getForm() throws RestException {
+        if (error != null) throw error;
+        if (form != null) return form;
+        if (!isForm()) return Collections.emptyMap();
+        InputStream is = getStream();
+        LinkedHashMap<String, String> out = new LinkedHashMap<>();
+        if (is != null) {
+            Charset charset = getCharset();
+            try (Reader reader = new InputStreamReader(is, charset)) {
+                StringBuilder content = new StringBuilder();
+                char[] buffer = new char[1024];
+                int len;
+                while ((len = reader.read(buffer)) >= 0) content.append(buffer, 0, len);
+                for (String pair : content.toString().split("&")) {
+                    if (pair.isEmpty()) continue;
+                    int pos = pair.indexOf('=');
+                    String key = pos < 0 ? pair : pair.substring(0, pos);
+                    String value = pos < 0 ? "" : pair.substring(pos + 1);
+                    out.putIfAbsent(
+                            URLDecoder.decode(key, charset.name()),
+                            URLDecoder.decode(value, charset.name()));
+                }
+            } catch (LimitExceededException e) {
+                error = tooLarge();
+                throw error;
+            } catch (IOException | IllegalArgumentException e) {
+                error =
+                        new RestException(
+                                "request body invalid", HttpServletResponse.SC_BAD_REQUEST, null);
+                throw error;
+            }
+        }
+        form = Collections.unmodifiableMap(out);
+        return form;
+    }
+
+    /**
+     * Return the streaming parser of a multipart body. The reader is created once.
+     *
+     * @return The reader
+     * @throws RestException If the body is not multipart/form-data or already consumed
+     */
+    public MultipartReader getMultipart() throws RestException {
+        if (multipart != null) return multipart;
+        String boundary = MultipartReader.getBoundary(contentType);
+        if (boundary == null)
+            throw new RestException(
+                    "request body is not multipart",
+                    HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                    null);
+        if (consumed) throw new IllegalStateException("request body already consumed");
+        consumed = true;
+        InputStream is = request.getLoadContent();
+        if (is == null)
+            throw new RestException(
+                    "request body missing", HttpServletResponse.SC_BAD_REQUEST, null);
+        multipart = new MultipartReader(is, boundary);
+        return multipart;
+    }
+
+    /** Release the resources of the body, e.g. stored multipart files. */
+    @Override
+    public void close() {
+        if (multipart != null) multipart.close();
+    }
+
+    /**
+     * Bind the top level values of the json body or the form fields to a new pojo. See PojoBinder.
+     *
+     * @param type The pojo class
+     * @return The new pojo
+     * @throws Exception If the body can't be parsed or a value is not valid
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T toPojo(Class<T> type) throws Exception {
+        if (isForm()) {
+            Map<String, String> f = getForm();
+            return (T) PojoBinder.of(type).create(f::get);
+        }
+        JsonNode node = getJson();
+        return (T) PojoBinder.of(type).create(name -> toValue(node, name));
+    }
+
+    /**
+     * Return a top level value of a json object body or a form field. Used to overlay the request
+     * parameters. If the body can't be parsed null is returned, the error is thrown if the body is
+     * requested directly.
+     *
+     * @param name The name of the value
+     * @return The value or null
+     */
+    public String getParameter(String name) {
+        try {
+            if (isForm()) return getForm().get(name);
+            if (isJson()) return toValue(getJson(), name);
+        } catch (RestException e) {
+            MLogUtil.log().d("request body not parsed", e.getMessage());
+        } catch (IllegalStateException e) {
+            // consumed as stream by the node
+        }
+        return null;
+    }
+
+    /**
+     * Return the names of the overlay parameters.
+     *
+     * @return The names, empty if the body is not json or form
+     */
+    public Set<String> getParameterNames() {
+        try {
+            if (isForm()) return getForm().keySet();
+            if (isJson()) {
+                JsonNode node = getJson();
+                if (!node.isObject()) return Collections.emptySet();
+                LinkedHashMap<String, String> names = new LinkedHashMap<>();
+                node.fieldNames().forEachRemaining(n -> names.put(n, n));
+                return names.keySet();
+            }
+        } catch (RestException e) {
+            MLogUtil.log().d("request body not parsed", e.getMessage());
+        } catch (IllegalStateException e) {
+        }
+        return Collections.emptySet();
+    }
+
+    private static String toValue(JsonNode node, String name) {
+        JsonNode value = node.get(name);
+        if (value == null || !value.isValueNode() || value.isNull()) return null;
+        return value.asText();
+    }
+
+    private Charset getCharset() {
+        int pos = contentType.indexOf("charset=");
+        if (pos >= 0) {
+            String charset = contentType.substring(pos + 8);
+            int end = charset.indexOf(';');
+            if (end >= 0) charset = charset.substring(0, end);
+            try {
+                return Charset.forName(charset.trim().replace("\"", ""));
+            } catch (IllegalArgumentException e) {
+                MLogUtil.log().d("unknown charset", charset);
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private RestException tooLarge() {
+        return new RestException(
+                "request body too large", HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, null);
+    }
+
+    /** Thrown by the body stream if the body is larger than the allowed size. */
+    public static class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private LimitExceededException() {
+            super("request body too large");
+        }
+
+        public int getReturnCode() {
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && --remaining < 0) throw new LimitExceededException();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                remaining -= n;
+                if (remaining < 0) throw new LimitExceededException();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            remaining -= skipped;
+            if (remaining < 0) throw new LimitExceededException();
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
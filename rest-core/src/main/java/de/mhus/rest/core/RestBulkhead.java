@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.rest.core.annotation.RestNode;
+import de.mhus.rest.core.api.RestApi;
+
+/**
+ * Limits the concurrent requests of a node. Requests beyond the limit wait in a bounded queue for
+ * a free slot, if the queue is full or the wait times out the request is rejected. The limits are
+ * taken from the RestNode annotation and can be overwritten by the configuration
+ * bulkheadMaxConcurrent.[node id] and bulkheadMaxQueue.[node id].
+ *
+ * <p>A queued request blocks the container thread while waiting. The wait is limited by
+ * 'bulkheadQueueTimeout', by default 100 milliseconds to absorb short bursts only. A longer
+ * timeout rejects fewer requests but can block many container threads if the node is slow. With a
+ * queue size of 0 the request is rejected at once if no slot is free.
+ */
+public class RestBulkhead {
+
+    public static final CfgLong CFG_QUEUE_TIMEOUT =
+            new CfgLong(RestApi.class, "bulkheadQueueTimeout", 100);
+    public static final CfgInt CFG_RETRY_AFTER =
+            new CfgInt(RestApi.class, "bulkheadRetryAfter", 1);
+
+    private final String nodeId;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+
+    public RestBulkhead(String nodeId, RestNode def) {
+        this.nodeId = nodeId;
+        maxConcurrent =
+                new CfgInt(
+                                RestApi.class,
+                                "bulkheadMaxConcurrent." + nodeId,
+                                def == null ? 0 : def.maxConcurrent())
+                        .value();
+        maxQueue =
+                new CfgInt(
+                                RestApi.class,
+                                "bulkheadMaxQueue." + nodeId,
+                                def == null ? 0 : def.maxQueue())
+                        .value();
+        permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+    }
+
+    /**
+     * Return true if a concurrent limit is defined for the node.
+     *
+     * @return true if limited
+     */
+    public boolean isLimited() {
+        return permits != null;
+    }
+
+    /**
+     * Acquire a slot for a request. If no slot is free the call waits in the queue up to
+     * bulkheadQueueTimeout milliseconds. If the queue is full or the queue size is 0 the call
+     * returns immediately. A successful call must be followed by release().
+     *
+     * @return true if the slot is acquired, false if the request must be rejected
+     */
+    public boolean acquire() {
+        if (permits == null) return true;
+        if (permits.tryAcquire()) return true;
+        if (maxQueue <= 0) {
+            rejected.increment();
+            return false;
+        }
+        if (waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(CFG_QUEUE_TIMEOUT.value(), TimeUnit.MILLISECONDS)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /** Release the slot acquired by acquire(). */
+    public void release() {
+        if (permits == null) return;
+        completed.increment();
+        permits.release();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    public int getActive() {
+        return permits == null ? 0 : maxConcurrent - permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return nodeId + " " + getActive() + "/" + maxConcurrent + " " + waiting + "/" + maxQueue;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.mhus.lib.core.MPeriod;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.rest.core.api.RestApi;
+
+/**
+ * Bounded cache of permission decisions by principal, authentication state, node ident and
+ * action. The authentication state is part of the key because annotation based checks like
+ * RequiresAuthentication depend on it. Entries expire after a ttl. The cache must be invalidated
+ * if realms, roles or the registered nodes change.
+ */
+public class RestPermissionCache {
+
+    public static final CfgInt CFG_SIZE = new CfgInt(RestApi.class, "permissionCacheSize", 10000);
+    public static final CfgLong CFG_TTL =
+            new CfgLong(RestApi.class, "permissionCacheTtl", MPeriod.MINUTE_IN_MILLISECONDS);
+
+    private static final Object ANONYMOUS = new Object();
+
+    private final ConcurrentHashMap<Key, Decision> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Return the cached decision or null if not cached.
+     *
+     * @param principal The principal of the subject, can be null
+     * @param authenticated true if the subject is authenticated in this session
+     * @param ident The node ident
+     * @param action The action
+     * @return true if granted, false if denied or null if unknown
+     */
+    public Boolean get(Object principal, boolean authenticated, String ident, String action) {
+        if (CFG_SIZE.value() <= 0) return null;
+        Key key = new Key(principal, authenticated, ident, action);
+        Decision decision = cache.get(key);
+        if (decision == null) return null;
+        if (decision.expires < System.currentTimeMillis()) {
+            cache.remove(key, decision);
+            return null;
+        }
+        return decision.granted;
+    }
+
+    public void put(
+            Object principal, boolean authenticated, String ident, String action, boolean granted) {
+        int max = CFG_SIZE.value();
+        if (max <= 0) return;
+        if (cache.size() >= max) cleanup(max);
+        cache.put(
+                new Key(principal, authenticated, ident, action),
+                new Decision(granted, System.currentTimeMillis() + CFG_TTL.value()));
+    }
+
+    /** Remove all decisions. */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private void cleanup(int max) {
+        long now = System.currentTimeMillis();
+        cache.entrySet().removeIf(e -> e.getValue().expires < now);
+        // still full - drop a part of the entries
+        int toRemove = cache.size() - max * 9 / 10;
+        Iterator<Map.Entry<Key, Decision>> iter = cache.entrySet().iterator();
+        while (toRemove > 0 && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+            toRemove--;
+        }
+    }
+
+    private static class Decision {
+
+        private final boolean granted;
+        private final long expires;
+
+        private Decision(boolean granted, long expires) {
+            this.granted = granted;
+            this.expires = expires;
+        }
+    }
+
+    private static class Key {
+
+        private final Object principal;
+        private final boolean authenticated;
+        private final String ident;
+        private final String action;
+        private final int hash;
+
+        private Key(Object principal, boolean authenticated, String ident, String action) {
+            this.principal = principal == null ? ANONYMOUS : principal;
+            this.authenticated = authenticated;
+            this.ident = ident;
+            this.action = action;
+            this.hash = Objects.hash(this.principal, authenticated, ident, action);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key o = (Key) obj;
+            return hash == o.hash
+                    && authenticated == o.authenticated
+                    && principal.equals(o.principal)
+                    && Objects.equals(ident, o.ident)
+                    && Objects.equals(action, o.action);
+        }
+    }
+}
@@ -15,8 +15,10 @@
  */
 package de.mhus.rest.core;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +31,7 @@ import de.mhus.lib.core.MLog;
 import de.mhus.lib.core.aaa.Aaa;
 import de.mhus.lib.core.cfg.CfgBoolean;
 import de.mhus.lib.errors.AccessDeniedException;
+import de.mhus.rest.core.RestRouteTable.Route;
 import de.mhus.rest.core.api.Node;
 import de.mhus.rest.core.api.RestApi;
 import de.mhus.rest.core.api.RestNodeService;
@@ -37,10 +40,105 @@ public class RestRegistry extends MLog {
 
     public static final CfgBoolean RELAXED = new CfgBoolean(RestApi.class, "aaaRelaxed", true);
 
-    private Map<String, RestNodeService> register = Collections.synchronizedMap(new HashMap<>());
+    private static final ClassValue<Boolean> ANNOTATED =
+            new ClassValue<Boolean>() {
+                @Override
+                protected Boolean computeValue(Class<?> type) {
+                    return Aaa.isAnnotated(type);
+                }
+            };
 
+    private final RestPermissionCache permissions = new RestPermissionCache();
+
+    // all registrations, guarded by this - writers only
+    private LinkedHashMap<String, Route> registrations = new LinkedHashMap<>();
+    // published snapshot - readers only
+    private volatile RestRouteTable routes = RestRouteTable.EMPTY;
+
+    /**
+     * Return a read only map of the current registrations.
+     *
+     * @return The registrations by ident
+     */
     public Map<String, RestNodeService> getRegistry() {
-        return register;
+        return routes.getRegistry();
+    }
+
+    public RestRouteTable getRouteTable() {
+        return routes;
+    }
+
+    public synchronized void register(RestNodeService service) {
+        if (service == null) return;
+        for (Route route : createRoutes(service)) registrations.put(route.getIdent(), route);
+        publish();
+    }
+
+    public synchronized void unregister(RestNodeService service) {
+        if (service == null) return;
+        Iterator<Route> iter = registrations.values().iterator();
+        while (iter.hasNext()) {
+            Route route = iter.next();
+            if (route.getService() == service) {
+                log().i("unregister", route.getIdent(), service.getClass().getCanonicalName());
+                iter.remove();
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Replace all registrations with the given services. The new routes are published at once,
+     * requests will not see an empty registry while resetting.
+     *
+     * @param services The new set of services
+     */
+    public synchronized void reset(Collection<RestNodeService> services) {
+        LinkedHashMap<String, Route> next = new LinkedHashMap<>();
+        for (RestNodeService service : services)
+            for (Route route : createRoutes(service)) next.put(route.getIdent(), route);
+        registrations = next;
+        publish();
+    }
+
+    public synchronized void clear() {
+        registrations = new LinkedHashMap<>();
+        publish();
+    }
+
+    private void publish() {
+        routes = new RestRouteTable(registrations.values());
+        permissions.invalidate();
+    }
+
+    /** Drop all cached permission decisions. Call it if realms or roles are changed. */
+    public void invalidatePermissions() {
+        permissions.invalidate();
+    }
+
+    public RestPermissionCache getPermissionCache() {
+        return permissions;
+    }
+
+    protected List<Route> createRoutes(RestNodeService service) {
+        LinkedList<Route> out = new LinkedList<>();
+        for (String x : service.getParentNodeCanonicalClassNames()) {
+            if (x != null) {
+                if (x.length() > 0
+                        && !x.contains(
+                                ".")) // print a warning - class name without dot should be
+                    // a mistake
+                    log().w(
+                                    "Register RestNode with malformed parent name - should be a class",
+                                    service.getClass(),
+                                    service.getNodeName(),
+                                    x);
+                Route route = new Route(x, service.getNodeName(), service);
+                log().i("register", route.getIdent(), service.getClass().getCanonicalName());
+                out.add(route);
+            }
+        }
+        return out;
     }
 
     public Node lookup(List<String> parts, CallContext context) throws Exception {
@@ -54,14 +152,28 @@ public class RestRegistry extends MLog {
         parts.remove(0);
         String lastNodeId =
                 lastNode == null ? RestNodeService.ROOT_PARENT : lastNode.getCanonicalName();
-        String ident = lastNodeId + "-" + name;
-        RestNodeService next = register.get(ident);
+        Route next = routes.get(lastNodeId, name);
         if (next == null) return null;
 
-        checkPermission(context, next, ident, "access");
+        checkPermission(context, next.getService(), next.getIdent(), "access");
 
-        context.setNodeIdent(ident); // remember last ident
-        return next.lookup(parts, context);
+        context.setNodeIdent(next.getIdent()); // remember last ident
+        return next.getService().lookup(parts, context);
+    }
+
+    public Node lookup(PathCursor parts, Class<? extends Node> lastNode, CallContext context)
+            throws Exception {
+        if (!parts.hasNext()) return null;
+        String lastNodeId =
+                lastNode == null ? RestNodeService.ROOT_PARENT : lastNode.getCanonicalName();
+        Route next = routes.get(lastNodeId, parts);
+        if (next == null) return null;
+        parts.skip();
+
+        checkPermission(context, next.getService(), next.getIdent(), "access");
+
+        context.setNodeIdent(next.getIdent()); // remember last ident
+        return next.getService().lookup(parts, context);
     }
 
     public void checkPermission(CallContext context, String action) {
@@ -70,7 +182,7 @@ public class RestRegistry extends MLog {
             log().d("ident is null");
             throw new AccessDeniedException("access denied (3)");
         }
-        RestNodeService next = register.get(ident);
+        RestNodeService next = routes.get(ident);
         if (next == null) {
             log().d("node is null", ident);
             throw new AccessDeniedException("access denied (4)");
@@ -83,14 +195,24 @@ public class RestRegistry extends MLog {
 
         if (context.getAuthorisation() == null) {
             Subject subject = SecurityUtils.getSubject();
+            Object principal = subject.getPrincipal();
+            boolean authenticated = subject.isAuthenticated();
+            Boolean cached = permissions.get(principal, authenticated, ident, action);
+            if (cached != null) {
+                if (cached) return;
+                log().d("access denied", subject, "de.mhus.rest.core.node", action, ident);
+                throw new AccessDeniedException("access denied (1)");
+            }
             try {
-                if (Aaa.isAnnotated(next.getClass())) Aaa.checkPermission(next.getClass());
+                if (ANNOTATED.get(next.getClass())) Aaa.checkPermission(next.getClass());
                 else // default access check
                 subject.checkPermission(
                             new WildcardPermission(
                                     "de.mhus.rest.core.node:" + action + ":" + ident));
+                permissions.put(principal, authenticated, ident, action, true);
                 log().d("access granted", subject, "de.mhus.rest.core.node", action, ident);
             } catch (AuthorizationException e) {
+                permissions.put(principal, authenticated, ident, action, false);
                 log().d("access denied", subject, "de.mhus.rest.core.node", action, ident);
                 throw new AccessDeniedException("access denied (1)");
             }
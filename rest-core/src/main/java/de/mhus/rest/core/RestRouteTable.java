@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.mhus.rest.core.api.RestNodeService;
+
+/**
+ * Immutable snapshot of all registered rest nodes. The routes are organized as a trie keyed by the
+ * parent node id and the path segment. Routes can be found by a PathCursor without extracting the
+ * segment from the path. A new table is compiled for every change of the registry and published
+ * as a whole, readers never need a lock.
+ */
+public final class RestRouteTable {
+
+    public static final RestRouteTable EMPTY =
+            new RestRouteTable(Collections.<Route>emptyList());
+
+    private final Map<String, Children> routes;
+    private final Map<String, RestNodeService> registry;
+    private final Map<String, RestNodeService> nodes;
+
+    public RestRouteTable(Collection<Route> list) {
+        HashMap<String, List<Route>> r = new HashMap<>();
+        LinkedHashMap<String, RestNodeService> reg = new LinkedHashMap<>();
+        HashMap<String, RestNodeService> n = new HashMap<>();
+        for (Route route : list) {
+            List<Route> children = r.get(route.parent);
+            if (children == null) {
+                children = new ArrayList<>();
+                r.put(route.parent, children);
+            }
+            children.add(route);
+            reg.put(route.ident, route.service);
+            n.put(route.service.getClass().getCanonicalName(), route.service);
+        }
+        HashMap<String, Children> c = new HashMap<>();
+        for (Map.Entry<String, List<Route>> entry : r.entrySet())
+            c.put(entry.getKey(), new Children(entry.getValue()));
+        routes = c;
+        registry = Collections.unmodifiableMap(reg);
+        nodes = Collections.unmodifiableMap(n);
+    }
+
+    /**
+     * Return the route for the segment below the given parent node.
+     *
+     * @param parent The canonical class name of the parent node or ROOT_PARENT
+     * @param name The path segment
+     * @return The route or null
+     */
+    public Route get(String parent, String name) {
+        Children children = routes.get(parent);
+        if (children == null) return null;
+        return children.get(name);
+    }
+
+    /**
+     * Return the route for the current segment of the cursor below the given parent node. The
+     * cursor is not moved.
+     *
+     * @param parent The canonical class name of the parent node or ROOT_PARENT
+     * @param cursor The path cursor
+     * @return The route or null
+     */
+    public Route get(String parent, PathCursor cursor) {
+        Children children = routes.get(parent);
+        if (children == null) return null;
+        return children.get(cursor);
+    }
+
+    /**
+     * Return the registered node for the ident (parent-name).
+     *
+     * @param ident The ident of the registration
+     * @return The node or null
+     */
+    public RestNodeService get(String ident) {
+        return registry.get(ident);
+    }
+
+    /**
+     * Return the registered node by node id. The node id is the canonical class name of the node.
+     *
+     * @param nodeId The node id
+     * @return The node or null
+     */
+    public RestNodeService getNode(String nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    /**
+     * Return a read only map of all registrations by ident.
+     *
+     * @return The registrations
+     */
+    public Map<String, RestNodeService> getRegistry() {
+        return registry;
+    }
+
+    public int size() {
+        return registry.size();
+    }
+
+    /*
+     * Open addressing table of the routes below a parent node. Allows to find a route by a
+     * segment of the path without extracting the segment.
+     */
+    private static final class Children {
+
+        private final Route[] table;
+        private final int mask;
+
+        private Children(List<Route> list) {
+            int cap = 2;
+            while (cap < list.size() * 2) cap <<= 1;
+            table = new Route[cap];
+            mask = cap - 1;
+            for (Route route : list) {
+                int i = route.hash & mask;
+                while (table[i] != null) {
+                    if (table[i].name.equals(route.name)) break; // replace
+                    i = (i + 1) & mask;
+                }
+                table[i] = route;
+            }
+        }
+
+        private Route get(String name) {
+            int i = name.hashCode() & mask;
+            while (true) {
+                Route route = table[i];
+                if (route == null) return null;
+                if (route.name.equals(name)) return route;
+                i = (i + 1) & mask;
+            }
+        }
+
+        private Route get(PathCursor cursor) {
+            int hash = cursor.segmentHash();
+            int i = hash & mask;
+            while (true) {
+                Route route = table[i];
+                if (route == null) return null;
+                if (route.hash == hash && cursor.segmentEquals(route.name)) return route;
+                i = (i + 1) & mask;
+            }
+        }
+    }
+
+    public static class Route {
+
+        private final String parent;
+        private final String name;
+        private final String ident;
+        private final RestNodeService service;
+        private final int hash;
+
+        public Route(String parent, String name, RestNodeService service) {
+            this.parent = parent;
+            this.name = name;
+            this.hash = name.hashCode();
+            this.ident = parent + "-" + name;
+            this.service = service;
+        }
+
+        public String getParent() {
+            return parent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getIdent() {
+            return ident;
+        }
+
+        public RestNodeService getService() {
+            return service;
+        }
+
+        @Override
+        public String toString() {
+            return ident;
+        }
+    }
+}
@@ -18,6 +18,8 @@ package de.mhus.rest.core.annotation;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
+import de.mhus.rest.core.api.RestPriority;
+
 /**
  * Mark a method to be used as rest action use the following method pattern
  *
@@ -31,4 +33,11 @@ public @interface RestAction {
     String name();
 
     String contentType() default "text/plain";
+
+    /**
+     * Priority class of the action, by default the priority of the node.
+     *
+     * @return The priority
+     */
+    RestPriority priority() default RestPriority.DEFAULT;
 }
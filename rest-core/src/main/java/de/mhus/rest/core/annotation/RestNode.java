@@ -20,6 +20,7 @@ import java.lang.annotation.RetentionPolicy;
 
 import de.mhus.rest.core.api.Node;
 import de.mhus.rest.core.api.RestNodeService;
+import de.mhus.rest.core.api.RestPriority;
 
 @Retention(RetentionPolicy.RUNTIME)
 public @interface RestNode {
@@ -30,4 +31,29 @@ public @interface RestNode {
     String[] parent() default RestNodeService.ROOT_PARENT;
 
     Class<? extends Node>[] parentNode() default {};
+
+    /**
+     * Maximum of concurrent requests processed by the node, 0 is unlimited. Can be overwritten by
+     * the configuration, see RestBulkhead.
+     *
+     * @return The limit
+     */
+    int maxConcurrent() default 0;
+
+    /**
+     * Maximum of requests waiting for processing if the concurrent limit is reached. Further
+     * requests are rejected with 503. Waiting requests block a container thread up to the
+     * bulkheadQueueTimeout, see RestBulkhead.
+     *
+     * @return The queue size
+     */
+    int maxQueue() default 0;
+
+    /**
+     * Priority class of the requests to the node, used by the fair scheduler. Actions can declare
+     * their own priority.
+     *
+     * @return The priority
+     */
+    RestPriority priority() default RestPriority.NORMAL;
 }
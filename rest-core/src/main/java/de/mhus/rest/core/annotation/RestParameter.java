@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.annotation;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Bind a parameter of a rest action method to a request parameter. Supported are strings,
+ * primitives and their wrappers, Date, UUID and enums. Other types are handled as pojo, the public
+ * attributes (annotated with Public) are bound from the request parameters by attribute name.
+ *
+ * <p>public Object doIt(@RestParameter("id") long id, @RestParameter(value = "mode", def =
+ * "FAST") Mode mode) throws Exception
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RestParameter {
+
+    /**
+     * Name of the request parameter, not used for pojos.
+     *
+     * @return The name
+     */
+    String value() default "";
+
+    /**
+     * Reject the request if the parameter is not set.
+     *
+     * @return true if required
+     */
+    boolean required() default false;
+
+    /**
+     * Default value if the parameter is not set. Empty for no default.
+     *
+     * @return The default value
+     */
+    String def() default "";
+}
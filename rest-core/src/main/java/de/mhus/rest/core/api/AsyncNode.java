@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.api;
+
+import java.util.concurrent.CompletionStage;
+
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.util.RestAsync;
+
+/**
+ * A node processing requests asynchronous. The RestServlet releases the container thread while
+ * the returned stage is not completed and writes the result non blocking. By default the methods
+ * call the synchronous methods, overwrite the methods to be processed asynchronous. Use
+ * RestAsync.supply() to execute work with the subject and tracing span of the request.
+ */
+public interface AsyncNode extends Node {
+
+    default CompletionStage<RestResult> doReadAsync(CallContext callContext) {
+        return RestAsync.call(() -> doRead(callContext));
+    }
+
+    default CompletionStage<RestResult> doActionAsync(CallContext callContext) {
+        return RestAsync.call(() -> doAction(callContext));
+    }
+
+    default CompletionStage<RestResult> doCreateAsync(CallContext callContext) {
+        return RestAsync.call(() -> doCreate(callContext));
+    }
+
+    default CompletionStage<RestResult> doUpdateAsync(CallContext callContext) {
+        return RestAsync.call(() -> doUpdate(callContext));
+    }
+
+    default CompletionStage<RestResult> doDeleteAsync(CallContext callContext) {
+        return RestAsync.call(() -> doDelete(callContext));
+    }
+}
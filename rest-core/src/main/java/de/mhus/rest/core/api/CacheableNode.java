@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.api;
+
+import de.mhus.rest.core.CallContext;
+
+/**
+ * Nodes implementing this interface allow clients to cache the result of read requests. The
+ * servlet answers conditional requests (If-None-Match, If-Modified-Since) with 304 before doRead()
+ * is called. If the node returns neither an entity tag nor a modification date, a weak entity tag
+ * is created from the body of the response.
+ */
+public interface CacheableNode {
+
+    /**
+     * Return the entity tag of the current state, e.g. a version in quotes like "v12", or null if
+     * not known. Weak tags start with W/.
+     *
+     * @param callContext The context of the call
+     * @return The tag or null
+     * @throws Exception
+     */
+    default String getETag(CallContext callContext) throws Exception {
+        return null;
+    }
+
+    /**
+     * Return the time of the last modification in milliseconds or -1 if not known.
+     *
+     * @param callContext The context of the call
+     * @return The modification time or -1
+     * @throws Exception
+     */
+    default long getLastModified(CallContext callContext) throws Exception {
+        return -1;
+    }
+
+    /**
+     * Return the Cache-Control header for read responses. By default clients must revalidate.
+     *
+     * @param callContext The context of the call
+     * @return The header value
+     */
+    default String getCacheControl(CallContext callContext) {
+        return "private, no-cache";
+    }
+}
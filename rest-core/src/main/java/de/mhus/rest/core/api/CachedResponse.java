@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serialized response of a read request stored in the ResponseCache. Json results are stored as
+ * payload without the envelope fields, the envelope is written for every response.
+ */
+public class CachedResponse {
+
+    private final String key;
+    private final String nodeId;
+    private final int status;
+    private final String contentType;
+    private final byte[] content;
+    private final boolean payload;
+    private final long created;
+    private final long expires;
+    private volatile byte[] gzipContent;
+    private final AtomicLong hits = new AtomicLong();
+
+    public CachedResponse(
+            String key,
+            String nodeId,
+            int status,
+            String contentType,
+            byte[] content,
+            long ttl) {
+        this(key, nodeId, status, contentType, content, ttl, false);
+    }
+
+    public CachedResponse(
+            String key,
+            String nodeId,
+            int status,
+            String contentType,
+            byte[] content,
+            long ttl,
+            boolean payload) {
+        this.key = key;
+        this.payload = payload;
+        this.nodeId = nodeId;
+        this.status = status;
+        this.contentType = contentType;
+        this.content = content;
+        this.created = System.currentTimeMillis();
+        this.expires = created + ttl;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Return true if the content is the json payload of a JsonResult without envelope.
+     *
+     * @return true if payload
+     */
+    public boolean isPayload() {
+        return payload;
+    }
+
+    /**
+     * Return the gzip compressed content or null if not available.
+     *
+     * @return The compressed content or null
+     */
+    public byte[] getGzipContent() {
+        return gzipContent;
+    }
+
+    public void setGzipContent(byte[] gzipContent) {
+        this.gzipContent = gzipContent;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+
+    public boolean isExpired() {
+        return expires < System.currentTimeMillis();
+    }
+
+    /**
+     * Return the size of the stored data in bytes.
+     *
+     * @return The size
+     */
+    public long getSize() {
+        byte[] gzip = gzipContent;
+        return content.length + (gzip == null ? 0 : gzip.length);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
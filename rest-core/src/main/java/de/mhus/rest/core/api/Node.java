@@ -18,6 +18,7 @@ package de.mhus.rest.core.api;
 import java.util.List;
 
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.RestSocket;
 
 public interface Node {
@@ -32,6 +33,19 @@ public interface Node {
 
     Node lookup(List<String> parts, CallContext callContext) throws Exception;
 
+    /**
+     * Lookup the next node using a path cursor. The default implementation is an adapter for list
+     * based nodes.
+     *
+     * @param parts The remaining path
+     * @param callContext The context of the call
+     * @return The found node or null
+     * @throws Exception
+     */
+    default Node lookup(PathCursor parts, CallContext callContext) throws Exception {
+        return lookup(parts.toList(), callContext);
+    }
+
     RestResult doRead(CallContext callContext) throws Exception;
 
     RestResult doAction(CallContext callContext) throws Exception;
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.api;
+
+import java.util.List;
+
+/**
+ * Cache of serialized responses of read requests. Only nodes implementing ResponseCachedNode are
+ * cached.
+ */
+public interface ResponseCache {
+
+    /**
+     * Return the not expired response or null.
+     *
+     * @param key The key of the request
+     * @return The response or null
+     */
+    CachedResponse get(String key);
+
+    void put(CachedResponse response);
+
+    /**
+     * Remove all responses of the node.
+     *
+     * @param nodeId The node id (canonical class name of the node)
+     */
+    void invalidate(String nodeId);
+
+    void clear();
+
+    /**
+     * Return the maximum size of a response to be cached.
+     *
+     * @return Size in bytes
+     */
+    long getMaxEntrySize();
+
+    /**
+     * Return a snapshot of the cached responses.
+     *
+     * @return The responses
+     */
+    List<CachedResponse> getEntries();
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.api;
+
+import org.apache.shiro.SecurityUtils;
+
+import de.mhus.lib.core.MPeriod;
+import de.mhus.rest.core.CallContext;
+
+/**
+ * Nodes implementing this interface store the serialized result of read requests in the
+ * ResponseCache of the RestApi. The key contains the node, path, parameters, Accept header and the
+ * scope. Nodes must invalidate the cache if the data changes.
+ */
+public interface ResponseCachedNode {
+
+    /**
+     * Return true if the current read request can be cached.
+     *
+     * @param callContext The context of the call
+     * @return true if cacheable
+     */
+    default boolean isResponseCacheable(CallContext callContext) {
+        return true;
+    }
+
+    /**
+     * Return the time to live of the cached response in milliseconds.
+     *
+     * @param callContext The context of the call
+     * @return The ttl
+     */
+    default long getResponseCacheTtl(CallContext callContext) {
+        return MPeriod.MINUTE_IN_MILLISECONDS;
+    }
+
+    /**
+     * Return the scope of the response, e.g. the principal or a role set. Responses are shared
+     * between requests with the same scope. By default it's the principal of the subject. Return
+     * null to share the response with all users.
+     *
+     * @param callContext The context of the call
+     * @return The scope or null
+     */
+    default String getResponseCacheScope(CallContext callContext) {
+        return String.valueOf(SecurityUtils.getSubject().getPrincipal());
+    }
+}
@@ -20,6 +20,9 @@ import java.util.Map;
 import java.util.function.Consumer;
 
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.FairScheduler;
+import de.mhus.rest.core.PathCursor;
+import de.mhus.rest.core.RestBulkhead;
 import de.mhus.rest.core.RestSocket;
 
 public interface RestApi {
@@ -27,6 +30,9 @@ public interface RestApi {
     Node lookup(List<String> parts, Class<? extends Node> lastNode, CallContext context)
             throws Exception;
 
+    Node lookup(PathCursor parts, Class<? extends Node> lastNode, CallContext context)
+            throws Exception;
+
     Map<String, RestNodeService> getRestNodeRegistry();
 
     String getNodeId(Node node);
@@ -45,6 +51,13 @@ public interface RestApi {
 
     void reset();
 
+    /**
+     * Drop all cached permission decisions. Must be called if realms or roles are changed. Changes
+     * of realm services are tracked by the implementation, changes inside of a realm (e.g. a role
+     * assignment) must be signaled by the caller or expire with permissionCacheTtl.
+     */
+    void invalidatePermissions();
+
     void checkPermission(Node item, String string, CallContext callContext);
 
     /**
@@ -87,4 +100,35 @@ public interface RestApi {
     String getRemoteAddress(Object request);
 
     RestTranslationService getTranslationService();
+
+    /**
+     * Return the cache for responses of ResponseCachedNode nodes or null if disabled.
+     *
+     * @return The cache or null
+     */
+    ResponseCache getResponseCache();
+
+    /**
+     * Return the bulkhead limiting the concurrent requests of the node or null if the node is not
+     * limited.
+     *
+     * @param node The node
+     * @return The bulkhead or null
+     */
+    RestBulkhead getBulkhead(Node node);
+
+    /**
+     * Return the bulkheads of all limited nodes by node id.
+     *
+     * @return The bulkheads
+     */
+    Map<String, RestBulkhead> getBulkheads();
+
+    /**
+     * Return the scheduler dispatching requests fair by principal and priority or null if
+     * disabled.
+     *
+     * @return The scheduler or null
+     */
+    FairScheduler getFairScheduler();
 }
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Encoding of json results, e.g. json, cbor or smile. The format is selected by the Accept header
+ * of the request.
+ */
+public interface RestFormat {
+
+    /**
+     * The short name of the format, e.g. json.
+     *
+     * @return The name
+     */
+    String getName();
+
+    /**
+     * The mime type of the format, used to match the Accept header and as content type of the
+     * response.
+     *
+     * @return The mime type
+     */
+    String getContentType();
+
+    /**
+     * Create a generator writing into the stream. The stream must not be closed by the generator.
+     *
+     * @param out The output stream
+     * @return The generator
+     * @throws IOException
+     */
+    JsonGenerator createGenerator(OutputStream out) throws IOException;
+}
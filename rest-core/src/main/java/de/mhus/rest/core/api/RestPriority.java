@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.api;
+
+/**
+ * Priority class of a request used by the fair scheduler. Waiting requests of a higher class are
+ * served first, e.g. interactive actions ahead of bulk exports.
+ */
+public enum RestPriority {
+    /** Use the priority of the node, for nodes NORMAL. */
+    DEFAULT,
+    INTERACTIVE,
+    NORMAL,
+    BULK
+}
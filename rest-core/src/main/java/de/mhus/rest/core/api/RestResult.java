@@ -15,6 +15,8 @@
  */
 package de.mhus.rest.core.api;
 
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 
 import de.mhus.rest.core.CallContext;
@@ -23,6 +25,21 @@ public interface RestResult {
 
     public void write(CallContext context, PrintWriter writer) throws Exception;
 
+    /**
+     * Write the result as bytes. The default implementation bridges to the PrintWriter using the
+     * encoding of the response. The stream is not closed.
+     *
+     * @param context The context of the call
+     * @param out The output stream
+     * @throws Exception
+     */
+    public default void write(CallContext context, OutputStream out) throws Exception {
+        PrintWriter writer =
+                new PrintWriter(new OutputStreamWriter(out, context.getResponseEncoding()));
+        write(context, writer);
+        writer.flush();
+    }
+
     public String getContentType(CallContext context);
 
     public int getReturnCode();
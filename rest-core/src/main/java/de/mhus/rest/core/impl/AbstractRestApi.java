@@ -16,8 +16,11 @@
 package de.mhus.rest.core.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 import javax.servlet.http.HttpServletRequest;
@@ -26,9 +29,14 @@ import de.mhus.lib.core.MLog;
 import de.mhus.lib.core.cfg.CfgBoolean;
 import de.mhus.lib.core.util.WeakMapList;
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.FairScheduler;
+import de.mhus.rest.core.PathCursor;
+import de.mhus.rest.core.RestBulkhead;
 import de.mhus.rest.core.RestRegistry;
 import de.mhus.rest.core.RestSocket;
+import de.mhus.rest.core.annotation.RestNode;
 import de.mhus.rest.core.api.Node;
+import de.mhus.rest.core.api.ResponseCache;
 import de.mhus.rest.core.api.RestApi;
 import de.mhus.rest.core.api.RestNodeService;
 
@@ -36,11 +44,47 @@ public abstract class AbstractRestApi extends MLog implements RestApi {
 
     protected RestRegistry register = new RestRegistry();
     protected WeakMapList<String, RestSocket> sockets = new WeakMapList<>();
+    protected ResponseCache responseCache = new MemoryResponseCache();
+    protected ConcurrentHashMap<String, RestBulkhead> bulkheads = new ConcurrentHashMap<>();
+    protected FairScheduler fairScheduler = new FairScheduler();
 
     public static final CfgBoolean RELAXED = new CfgBoolean(RestApi.class, "aaaRelaxed", true);
     public static final CfgBoolean REQUIRE_SECURITY =
             new CfgBoolean(RestApi.class, "requireSecurity", false);
 
+    @Override
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public FairScheduler getFairScheduler() {
+        return FairScheduler.CFG_ENABLED.value() ? fairScheduler : null;
+    }
+
+    @Override
+    public RestBulkhead getBulkhead(Node node) {
+        RestBulkhead bulkhead =
+                bulkheads.computeIfAbsent(
+                        getNodeId(node),
+                        k -> new RestBulkhead(k, node.getClass().getAnnotation(RestNode.class)));
+        return bulkhead.isLimited() ? bulkhead : null;
+    }
+
+    @Override
+    public Map<String, RestBulkhead> getBulkheads() {
+        HashMap<String, RestBulkhead> out = new HashMap<>();
+        bulkheads.forEach(
+                (k, v) -> {
+                    if (v.isLimited()) out.put(k, v);
+                });
+        return Collections.unmodifiableMap(out);
+    }
+
     @Override
     public Map<String, RestNodeService> getRestNodeRegistry() {
         return register.getRegistry();
@@ -52,6 +96,17 @@ public abstract class AbstractRestApi extends MLog implements RestApi {
         return register.lookup(parts, lastNode, context);
     }
 
+    @Override
+    public Node lookup(PathCursor parts, Class<? extends Node> lastNode, CallContext context)
+            throws Exception {
+        return register.lookup(parts, lastNode, context);
+    }
+
+    @Override
+    public void invalidatePermissions() {
+        register.invalidatePermissions();
+    }
+
     @Override
     public String getNodeId(Node node) {
         // return node instanceof RestNodeService ? ((RestNodeService)node).getNodeId() :
@@ -61,12 +116,8 @@ public abstract class AbstractRestApi extends MLog implements RestApi {
 
     @Override
     public Node getNode(String ident) {
-        //        String suffix = "-" + ident;
-        //        for (Entry<String, RestNodeService> entry : register.getRegistry().entrySet())
-        //            if (entry.getKey().endsWith(suffix)) return entry.getValue();
-        for (RestNodeService entry : register.getRegistry().values())
-            if (entry.getClass().getCanonicalName().equals(ident)) return entry;
-        return null;
+        if (ident == null) return null;
+        return register.getRouteTable().getNode(ident);
     }
 
     @Override
@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import de.mhus.lib.core.MString;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.api.RestApi;
+
+/**
+ * Response of an asynchronous request. The content is written into a bounded queue of chunks
+ * which is drained by a WriteListener of the servlet container. Writing does not block container
+ * threads, if the queue is full the producing thread waits until the client accepted the content.
+ * The asynchronous request is completed after all content is sent.
+ *
+ * <p>The producing thread waits at most 'asyncWriteTimeout' milliseconds for the client to accept
+ * more content. If the client stalls longer the stream fails and the request is completed, the
+ * writer gets an IOException and releases its resources. 0 waits forever.
+ */
+public class AsyncResponse extends HttpServletResponseWrapper {
+
+    public static final CfgLong CFG_WRITE_TIMEOUT =
+            new CfgLong(RestApi.class, "asyncWriteTimeout", 30000);
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_QUEUED = 32 * CHUNK_SIZE;
+
+    private final AsyncContext async;
+    private volatile AsyncOutputStream stream;
+    private PrintWriter writer;
+    private boolean completed;
+
+    public AsyncResponse(HttpServletResponse response, AsyncContext async) {
+        super(response);
+        this.async = async;
+    }
+
+    @Override
+    public synchronized ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) throw new IllegalStateException("getWriter() already called");
+        if (stream == null) stream = new AsyncOutputStream(super.getOutputStream());
+        return stream;
+    }
+
+    @Override
+    public synchronized PrintWriter getWriter() throws IOException {
+        if (writer != null) return writer;
+        if (stream != null) throw new IllegalStateException("getOutputStream() already called");
+        stream = new AsyncOutputStream(super.getOutputStream());
+        String charset = getCharacterEncoding();
+        if (charset == null) charset = MString.CHARSET_UTF_8;
+        writer = new PrintWriter(new OutputStreamWriter(stream, Charset.forName(charset)));
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) writer.flush();
+        if (stream != null) stream.flush();
+    }
+
+    /**
+     * Send the pending content and complete the asynchronous request after the content is sent.
+     *
+     * @throws IOException
+     */
+    public void complete() throws IOException {
+        AsyncOutputStream s;
+        synchronized (this) {
+            if (completed) return;
+            completed = true;
+            if (writer != null) writer.flush();
+            s = stream;
+        }
+        if (s == null) async.complete();
+        else s.close();
+    }
+
+    /**
+     * Abort the response, e.g. after a timeout. The pending content is dropped and the request is
+     * completed. A thread writing or waiting for the client gets an IOException.
+     *
+     * @param cause The reason
+     */
+    public void abort(Throwable cause) {
+        // not locked, complete() could be waiting for the client while holding the lock
+        AsyncOutputStream s = stream;
+        if (s == null) {
+            synchronized (this) {
+                s = stream;
+                if (s == null) {
+                    if (completed) return;
+                    completed = true;
+                }
+            }
+        }
+        if (s != null) {
+            s.abort(cause);
+            return;
+        }
+        try {
+            async.complete();
+        } catch (Throwable t) {
+            MLogUtil.log().d("complete async request failed", t);
+        }
+    }
+
+    private class AsyncOutputStream extends ServletOutputStream implements WriteListener {
+
+        private final ServletOutputStream out;
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        private byte[] chunk;
+        private int count;
+        private long queued;
+        private boolean closed;
+        private boolean done;
+        private Throwable error;
+
+        private AsyncOutputStream(ServletOutputStream out) {
+            this.out = out;
+            out.setWriteListener(this);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            checkState();
+            while (len > 0) {
+                if (chunk == null) {
+                    chunk = new byte[CHUNK_SIZE];
+                    count = 0;
+                }
+                int n = Math.min(len, CHUNK_SIZE - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == CHUNK_SIZE) enqueue();
+            }
+            // back pressure, wait for the client until it stalls too long
+            long stall = CFG_WRITE_TIMEOUT.value();
+            long deadline = System.currentTimeMillis() + stall;
+            long pending = queued;
+            while (queued > MAX_QUEUED && error == null && !done) {
+                long now = System.currentTimeMillis();
+                if (queued < pending) {
+                    pending = queued;
+                    deadline = now + stall;
+                }
+                try {
+                    if (stall <= 0) wait();
+                    else if (now < deadline) wait(deadline - now);
+                    else fail(new IOException("client write timeout after " + stall + " ms"));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            checkState();
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            checkState();
+            enqueue();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) return;
+            enqueue();
+            closed = true;
+            drain();
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new IllegalStateException("write listener already set");
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            drain();
+        }
+
+        @Override
+        public synchronized void onError(Throwable t) {
+            MLogUtil.log().d("async write failed", t);
+            fail(t);
+        }
+
+        private synchronized void abort(Throwable t) {
+            fail(t);
+        }
+
+        /* Drop the pending content and complete the request, the writer gets the error. */
+        private void fail(Throwable t) {
+            if (error == null) error = t;
+            queue.clear();
+            queued = 0;
+            notifyAll();
+            finish();
+        }
+
+        private void enqueue() throws IOException {
+            if (chunk == null || count == 0) return;
+            byte[] c = count == chunk.length ? chunk : Arrays.copyOf(chunk, count);
+            chunk = null;
+            count = 0;
+            queue.add(c);
+            queued += c.length;
+            drain();
+        }
+
+        private void drain() throws IOException {
+            if (error != null || done) return;
+            while (!queue.isEmpty()) {
+                if (!out.isReady()) return; // onWritePossible() will be called
+                byte[] c = queue.poll();
+                queued -= c.length;
+                out.write(c);
+                notifyAll();
+            }
+            if (closed && out.isReady()) finish();
+        }
+
+        private void finish() {
+            if (done) return;
+            done = true;
+            notifyAll();
+            try {
+                async.complete();
+            } catch (Throwable t) {
+                MLogUtil.log().d("complete async request failed", t);
+            }
+        }
+
+        private void checkState() throws IOException {
+            if (error != null) throw new IOException("client write failed", error);
+            if (closed || done) throw new IOException("stream closed");
+        }
+    }
+}
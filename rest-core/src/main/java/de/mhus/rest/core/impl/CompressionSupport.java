@@ -0,0 +1,467 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import de.mhus.lib.core.MString;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgString;
+
+/**
+ * Compression of responses with gzip or deflate depending on the Accept-Encoding header of the
+ * request. The response is buffered until the minimum size is reached, smaller responses are sent
+ * uncompressed. Responses with a content type in the exclude list, partial content or an already
+ * set Content-Encoding are not compressed. Deflater instances are pooled.
+ */
+public class CompressionSupport {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int MAX_POOL_SIZE = 32;
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final CfgBoolean CFG_ENABLED;
+    private final CfgInt CFG_MIN_SIZE;
+    private final CfgInt CFG_LEVEL;
+    private final CfgString CFG_EXCLUDE;
+
+    private final ConcurrentLinkedQueue<Deflater> gzipPool = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Deflater> deflatePool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger gzipPoolSize = new AtomicInteger();
+    private final AtomicInteger deflatePoolSize = new AtomicInteger();
+
+    public CompressionSupport(Class<?> owner) {
+        CFG_ENABLED = new CfgBoolean(owner, "compression", true);
+        CFG_MIN_SIZE = new CfgInt(owner, "compressionMinSize", 1024);
+        CFG_LEVEL = new CfgInt(owner, "compressionLevel", Deflater.DEFAULT_COMPRESSION);
+        CFG_EXCLUDE =
+                new CfgString(
+                        owner,
+                        "compressionExclude",
+                        "image/png,image/jpeg,image/gif,image/webp,video/,audio/,"
+                                + "application/zip,application/gzip,application/x-gzip,"
+                                + "application/x-bzip2,application/x-xz,"
+                                + "application/x-7z-compressed,font/woff");
+    }
+
+    /**
+     * Wrap the response if the client accepts a supported encoding.
+     *
+     * @param request The request
+     * @param response The response
+     * @return The compressing response or null if compression is not possible
+     */
+    public CompressionResponse wrap(HttpServletRequest request, HttpServletResponse response) {
+        if (!CFG_ENABLED.value()) return null;
+        String encoding = findEncoding(request.getHeader("Accept-Encoding"));
+        if (encoding == null) return null;
+        return new CompressionResponse(response, encoding);
+    }
+
+    /**
+     * Select the encoding by the Accept-Encoding header. gzip is preferred.
+     *
+     * @param accept The header value
+     * @return gzip, deflate or null
+     */
+    protected String findEncoding(String accept) {
+        if (MString.isEmpty(accept)) return null;
+        double gzip = 0;
+        double deflate = 0;
+        for (String entry : accept.split(",")) {
+            String name = entry;
+            double q = 1;
+            int pos = entry.indexOf(';');
+            if (pos >= 0) {
+                name = entry.substring(0, pos);
+                String param = entry.substring(pos + 1).trim();
+                if (param.startsWith("q="))
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+            }
+            name = name.trim().toLowerCase(Locale.ENGLISH);
+            if (name.equals(GZIP) || name.equals("x-gzip")) gzip = Math.max(gzip, q);
+            else if (name.equals(DEFLATE)) deflate = Math.max(deflate, q);
+            else if (name.equals("*")) {
+                if (gzip == 0) gzip = q;
+            }
+        }
+        if (gzip > 0 && gzip >= deflate) return GZIP;
+        if (deflate > 0) return DEFLATE;
+        return null;
+    }
+
+    protected boolean isCompressible(String contentType) {
+        if (contentType == null) return true;
+        String type = contentType.toLowerCase(Locale.ENGLISH);
+        for (String exclude : CFG_EXCLUDE.value().split(",")) {
+            exclude = exclude.trim();
+            if (exclude.length() > 0 && type.startsWith(exclude)) return false;
+        }
+        return true;
+    }
+
+    private Deflater acquire(boolean gzip) {
+        ConcurrentLinkedQueue<Deflater> pool = gzip ? gzipPool : deflatePool;
+        Deflater deflater = pool.poll();
+        if (deflater != null) {
+            (gzip ? gzipPoolSize : deflatePoolSize).decrementAndGet();
+            deflater.setLevel(CFG_LEVEL.value());
+            return deflater;
+        }
+        // gzip uses raw deflate data with own header and trailer
+        return new Deflater(CFG_LEVEL.value(), gzip);
+    }
+
+    private void release(Deflater deflater, boolean gzip) {
+        deflater.reset();
+        AtomicInteger size = gzip ? gzipPoolSize : deflatePoolSize;
+        if (size.incrementAndGet() > MAX_POOL_SIZE) {
+            size.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        (gzip ? gzipPool : deflatePool).offer(deflater);
+    }
+
+    /**
+     * Add Accept-Encoding to the value of a Vary header.
+     *
+     * @param vary The current value or null
+     * @return The value containing Accept-Encoding
+     */
+    public static String addVaryEncoding(String vary) {
+        if (MString.isEmptyTrim(vary)) return "Accept-Encoding";
+        if (vary.trim().equals("*")) return vary;
+        for (String name : vary.split(","))
+            if (name.trim().equalsIgnoreCase("Accept-Encoding")) return vary;
+        return vary + ", Accept-Encoding";
+    }
+
+    /**
+     * Response wrapper buffering the content until the minimum size is reached. finish() must be
+     * called after the request is processed. The Vary header of the response always contains
+     * Accept-Encoding, also if the content is not compressed.
+     */
+    public class CompressionResponse extends HttpServletResponseWrapper {
+
+        private final String encoding;
+        private final int minSize;
+        private CompressionStream stream;
+        private PrintWriter writer;
+        private long contentLength = -1;
+
+        private CompressionResponse(HttpServletResponse response, String encoding) {
+            super(response);
+            this.encoding = encoding;
+            minSize = Math.max(0, CFG_MIN_SIZE.value());
+            super.setHeader("Vary", addVaryEncoding(null));
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) throw new IllegalStateException("getWriter() already called");
+            if (stream == null) stream = new CompressionStream(this);
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer != null) return writer;
+            if (stream != null) throw new IllegalStateException("getOutputStream() already called");
+            stream = new CompressionStream(this);
+            String charset = getCharacterEncoding();
+            writer =
+                    new PrintWriter(
+                            new OutputStreamWriter(
+                                    stream,
+                                    Charset.forName(
+                                            charset == null ? MString.CHARSET_UTF_8 : charset)));
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = value == null ? -1 : Long.parseLong(value.trim());
+                return;
+            }
+            if ("Vary".equalsIgnoreCase(name)) value = addVaryEncoding(value);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                setHeader(name, value);
+                return;
+            }
+            if ("Vary".equalsIgnoreCase(name)) {
+                String current = getHeader(name);
+                setHeader(name, current == null ? value : current + ", " + value);
+                return;
+            }
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = value;
+                return;
+            }
+            super.setIntHeader(name, value);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) writer.flush();
+            if (stream != null) stream.flush();
+            else super.flushBuffer();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            super.setHeader("Vary", addVaryEncoding(null));
+            resetContent();
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            resetContent();
+        }
+
+        private void resetContent() {
+            if (stream != null && !stream.decided) stream.count = 0;
+        }
+
+        /**
+         * Write the pending content and finish the compression.
+         *
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            if (writer != null) writer.flush();
+            if (stream != null) stream.finish();
+            else if (contentLength >= 0) getResponse().setContentLengthLong(contentLength);
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        private boolean shouldCompress(long size) {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            int status = response.getStatus();
+            if (size < minSize) return false;
+            if (status == HttpServletResponse.SC_PARTIAL_CONTENT
+                    || status == HttpServletResponse.SC_NO_CONTENT
+                    || status == HttpServletResponse.SC_NOT_MODIFIED) return false;
+            if (response.containsHeader("Content-Encoding")) return false;
+            return isCompressible(response.getContentType());
+        }
+    }
+
+    private class CompressionStream extends ServletOutputStream {
+
+        private final CompressionResponse response;
+        private byte[] buffer;
+        private int count;
+        private boolean decided;
+        private boolean closed;
+        private OutputStream out;
+        private Deflater deflater;
+        private boolean gzip;
+        private CRC32 crc;
+        private byte[] deflateBuffer;
+
+        private CompressionStream(CompressionResponse response) {
+            this.response = response;
+            buffer = new byte[Math.min(Math.max(512, response.minSize), 8192)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("stream closed");
+            if (len == 0) return;
+            if (!decided) {
+                if (count + len < response.minSize) {
+                    // still small, wait for more content
+                    if (count + len > buffer.length) grow(count + len);
+                    System.arraycopy(b, off, buffer, count, len);
+                    count += len;
+                    return;
+                }
+                decide(true);
+                if (count > 0) writeContent(buffer, 0, count);
+                count = 0;
+                buffer = null;
+            }
+            writeContent(b, off, len);
+        }
+
+        private void grow(int size) {
+            byte[] n = new byte[Math.max(size, buffer.length * 2)];
+            System.arraycopy(buffer, 0, n, 0, count);
+            buffer = n;
+        }
+
+        private void decide(boolean large) throws IOException {
+            decided = true;
+            HttpServletResponse raw = (HttpServletResponse) response.getResponse();
+            long size = large ? Math.max(count, response.minSize) : count;
+            if (response.contentLength > size) size = response.contentLength;
+            if (response.shouldCompress(size)) {
+                gzip = GZIP.equals(response.encoding);
+                raw.setHeader("Content-Encoding", response.encoding);
+                // the compressed content is not byte equal to the uncompressed content
+                String eTag = raw.getHeader("ETag");
+                if (eTag != null && eTag.startsWith("\"")) raw.setHeader("ETag", "W/" + eTag);
+                deflater = acquire(gzip);
+                deflateBuffer = new byte[8192];
+                out = raw.getOutputStream();
+                if (gzip) {
+                    crc = new CRC32();
+                    out.write(GZIP_HEADER);
+                }
+            } else {
+                if (response.contentLength >= 0) raw.setContentLengthLong(response.contentLength);
+                else if (!large) raw.setContentLength(count);
+                out = raw.getOutputStream();
+            }
+        }
+
+        private void writeContent(byte[] b, int off, int len) throws IOException {
+            if (deflater == null) {
+                out.write(b, off, len);
+                return;
+            }
+            if (crc != null) crc.update(b, off, len);
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) drain(Deflater.NO_FLUSH);
+        }
+
+        private int drain(int mode) throws IOException {
+            int n = deflater.deflate(deflateBuffer, 0, deflateBuffer.length, mode);
+            if (n > 0) out.write(deflateBuffer, 0, n);
+            return n;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // do not flush small content, the decision is not made yet
+            if (!decided || out == null || closed) return;
+            // push the pending compressed data to the client, needed by streaming results
+            if (deflater != null) {
+                int n;
+                do {
+                    n = drain(Deflater.SYNC_FLUSH);
+                } while (n == deflateBuffer.length);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        private void finish() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                if (!decided) {
+                    decide(false);
+                    if (count > 0) writeContent(buffer, 0, count);
+                    buffer = null;
+                }
+                if (deflater != null) {
+                    deflater.finish();
+                    while (!deflater.finished()) drain(Deflater.NO_FLUSH);
+                    if (crc != null) {
+                        writeInt((int) crc.getValue());
+                        writeInt((int) deflater.getBytesRead());
+                    }
+                }
+                if (out != null) out.flush();
+            } finally {
+                if (deflater != null) {
+                    release(deflater, gzip);
+                    deflater = null;
+                }
+            }
+        }
+
+        private void writeInt(int v) throws IOException {
+            out.write(v & 0xff);
+            out.write((v >> 8) & 0xff);
+            out.write((v >> 16) & 0xff);
+            out.write((v >> 24) & 0xff);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // the content is compressed blocking, asynchronous responses are written by an
+            // AsyncResponse below the compression
+            throw new IllegalStateException("write listener not supported by compression");
+        }
+    }
+}
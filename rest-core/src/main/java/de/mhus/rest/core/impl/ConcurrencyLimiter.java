@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
+
+/**
+ * Adaptive limit of requests in flight. The limit follows the gradient between the long term and
+ * the short term latency: If requests get slower than usual the limit decreases, if latency is
+ * stable the limit grows by the square root of the limit. Requests beyond the limit are shed
+ * before any work is done. Priority requests may exceed the limit by a headroom.
+ */
+public class ConcurrencyLimiter {
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int LONG_WINDOW = 600;
+    private static final int SHORT_WINDOW = 10;
+
+    private final CfgBoolean CFG_ENABLED;
+    private final CfgInt CFG_MIN;
+    private final CfgInt CFG_MAX;
+    private final CfgInt CFG_HEADROOM;
+    private final CfgInt CFG_RETRY_AFTER;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+    private double longRtt;
+    private double shortRtt;
+
+    public ConcurrencyLimiter(Class<?> owner) {
+        CFG_ENABLED = new CfgBoolean(owner, "limiter", false);
+        CFG_MIN = new CfgInt(owner, "limiterMin", 8);
+        CFG_MAX = new CfgInt(owner, "limiterMax", 1000);
+        CFG_HEADROOM = new CfgInt(owner, "limiterPriorityHeadroom", 25);
+        CFG_RETRY_AFTER = new CfgInt(owner, "limiterRetryAfter", 1);
+        limit = new CfgInt(owner, "limiterInitial", 20).value();
+    }
+
+    public boolean isEnabled() {
+        return CFG_ENABLED.value();
+    }
+
+    /**
+     * Try to start a request.
+     *
+     * @param priority true if the request can use the headroom over the limit
+     * @return The permit or null if the request must be rejected
+     */
+    public Permit acquire(boolean priority) {
+        double max = limit;
+        if (priority) max = max * (100 + CFG_HEADROOM.value()) / 100;
+        int current = inFlight.incrementAndGet();
+        if (current > max) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            return null;
+        }
+        return new Permit(current);
+    }
+
+    private synchronized void onSample(long rtt, int inFlightAtStart) {
+        if (longRtt == 0) {
+            longRtt = rtt;
+            shortRtt = rtt;
+            return;
+        }
+        shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+        longRtt += (rtt - longRtt) / LONG_WINDOW;
+        // recover faster after a long phase of high latency
+        if (longRtt / shortRtt > 2) longRtt *= 0.95;
+
+        double current = limit;
+        // the limit is not reached, the latency says nothing about the limit
+        if (inFlightAtStart < current / 2) return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double next = current * gradient + Math.sqrt(current);
+        next = current * (1 - SMOOTHING) + next * SMOOTHING;
+        limit = Math.max(CFG_MIN.value(), Math.min(CFG_MAX.value(), next));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int getRetryAfter() {
+        return CFG_RETRY_AFTER.value();
+    }
+
+    /**
+     * A started request. The permit must be released after the request is finished, for
+     * asynchronous requests the permit can be registered as listener of the async context.
+     * Release is executed only once.
+     */
+    public class Permit implements AsyncListener {
+
+        private final long start = System.nanoTime();
+        private final int inFlightAtStart;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inFlightAtStart) {
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        public void release() {
+            if (!released.compareAndSet(false, true)) return;
+            inFlight.decrementAndGet();
+            onSample(System.nanoTime() - start, inFlightAtStart);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {}
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.api.CacheableNode;
+
+/**
+ * Evaluates the conditional headers of a read request for a CacheableNode. If the node does not
+ * provide a validator a weak entity tag is created from the content. For json results the payload
+ * without the envelope fields is hashed, other bodies are hashed while they are written. Content
+ * larger than the maximum size is sent without entity tag.
+ */
+public class ConditionalRequest {
+
+    public static final String VARY = "Accept, Accept-Encoding, Authorization";
+
+    private final HttpServletRequest req;
+    private final HttpServletResponse resp;
+    private final int maxBodySize;
+    private boolean hashBody;
+
+    public ConditionalRequest(HttpServletRequest req, HttpServletResponse resp, int maxBodySize) {
+        this.req = req;
+        this.resp = resp;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Set the caching headers and check the conditions.
+     *
+     * @param node The node
+     * @param callContext The context of the call
+     * @return true if the client has the current version, a 304 status is set
+     * @throws Exception
+     */
+    public boolean isNotModified(CacheableNode node, CallContext callContext) throws Exception {
+        String eTag = node.getETag(callContext);
+        long lastModified = node.getLastModified(callContext);
+        resp.setHeader("Cache-Control", node.getCacheControl(callContext));
+        resp.setHeader("Vary", VARY);
+        if (eTag != null) resp.setHeader("ETag", eTag);
+        if (lastModified > 0) resp.setDateHeader("Last-Modified", lastModified);
+
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (eTag != null && ifNoneMatch != null) {
+            if (matches(ifNoneMatch, eTag)) return notModified();
+            return false;
+        }
+        if (eTag == null && lastModified <= 0) {
+            hashBody = maxBodySize > 0;
+            return false;
+        }
+        // If-Modified-Since is evaluated only without If-None-Match
+        if (ifNoneMatch != null || lastModified <= 0) return false;
+        long since = -1;
+        try {
+            since = req.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+        }
+        if (since > 0 && lastModified / 1000 <= since / 1000) return notModified();
+        return false;
+    }
+
+    private boolean notModified() {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    /**
+     * Return true if the body must be hashed to create the entity tag.
+     *
+     * @return true if hashing is needed
+     */
+    public boolean isHashBody() {
+        return hashBody;
+    }
+
+    /**
+     * Create the entity tag from the payload of a json result and check the condition. The
+     * envelope fields of the response change with every request and must not be part of the
+     * payload. The body is not hashed while writing after this call.
+     *
+     * @param payload The payload or null if not available
+     * @return true if the client has the current version, a 304 status is set
+     */
+    public boolean isPayloadNotModified(byte[] payload) {
+        hashBody = false;
+        if (payload == null || payload.length > maxBodySize) return false;
+        MessageDigest digest = createDigest();
+        if (digest == null) return false;
+        String eTag = toETag(digest.digest(payload));
+        resp.setHeader("ETag", eTag);
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null
+                && resp.getStatus() == HttpServletResponse.SC_OK
+                && matches(ifNoneMatch, eTag)) return notModified();
+        return false;
+    }
+
+    /** Do not hash the body, e.g. if the body contains changing fields. */
+    public void disableHashBody() {
+        hashBody = false;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (Exception e) {
+            MLogUtil.log().d("digest not available", e);
+            return null;
+        }
+    }
+
+    private static String toETag(byte[] hash) {
+        StringBuilder eTag = new StringBuilder("W/\"");
+        for (byte b : hash) {
+            eTag.append(Character.forDigit((b >> 4) & 0xf, 16));
+            eTag.append(Character.forDigit(b & 0xf, 16));
+        }
+        eTag.append('"');
+        return eTag.toString();
+    }
+
+    /**
+     * Return a stream computing the entity tag of the body. finish() of the stream must be called
+     * after the body is written.
+     *
+     * @param out The stream of the response
+     * @return The hashing stream
+     */
+    public ETagStream createStream(OutputStream out) {
+        return new ETagStream(out);
+    }
+
+    /*
+     * Weak comparison of the entity tags in the If-None-Match header.
+     */
+    static boolean matches(String ifNoneMatch, String eTag) {
+        String tag = stripWeak(eTag);
+        for (String entry : ifNoneMatch.split(",")) {
+            entry = entry.trim();
+            if (entry.equals("*") || stripWeak(entry).equals(tag)) return true;
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    public class ETagStream extends OutputStream {
+
+        private final OutputStream out;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private MessageDigest digest;
+
+        private ETagStream(OutputStream out) {
+            this.out = out;
+            digest = createDigest();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer == null) {
+                out.write(b, off, len);
+                return;
+            }
+            if (digest == null || buffer.size() + len > maxBodySize) {
+                // too large, send without entity tag
+                buffer.writeTo(out);
+                buffer = null;
+                out.write(b, off, len);
+                return;
+            }
+            buffer.write(b, off, len);
+            digest.update(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer == null) out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the response stream is closed by the container
+        }
+
+        /**
+         * Set the entity tag and write the buffered body or answer with 304 if the client has the
+         * same version.
+         *
+         * @throws IOException
+         */
+        public void finish() throws IOException {
+            if (buffer == null) {
+                out.flush();
+                return;
+            }
+            ByteArrayOutputStream body = buffer;
+            buffer = null;
+            String eTag = toETag(digest.digest());
+            resp.setHeader("ETag", eTag);
+            String ifNoneMatch = req.getHeader("If-None-Match");
+            int status = resp.getStatus();
+            if (ifNoneMatch != null
+                    && status == HttpServletResponse.SC_OK
+                    && matches(ifNoneMatch, eTag)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            resp.setContentLength(body.size());
+            body.writeTo(out);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.api.RestFormat;
+
+/** Format based on a jackson JsonFactory. Binary data formats are loaded if available. */
+public class JacksonRestFormat implements RestFormat {
+
+    public static final String JSON = "application/json";
+    public static final String CBOR = "application/cbor";
+    public static final String SMILE = "application/x-jackson-smile";
+
+    private final String name;
+    private final String contentType;
+    private final JsonFactory factory;
+
+    public JacksonRestFormat(String name, String contentType, JsonFactory factory) {
+        this.name = name;
+        this.contentType = contentType;
+        this.factory = factory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Create a format by the class name of the jackson factory. Returns null if the data format is
+     * not available.
+     *
+     * @param name The name of the format
+     * @param contentType The mime type
+     * @param factoryClass The class name of the JsonFactory
+     * @return The format or null
+     */
+    public static RestFormat create(String name, String contentType, String factoryClass) {
+        try {
+            JsonFactory factory =
+                    (JsonFactory)
+                            JacksonRestFormat.class
+                                    .getClassLoader()
+                                    .loadClass(factoryClass)
+                                    .getConstructor()
+                                    .newInstance();
+            return new JacksonRestFormat(name, contentType, factory);
+        } catch (Throwable t) {
+            MLogUtil.log().d("format not available", name, factoryClass, t.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return factory.createGenerator(out, JsonEncoding.UTF8);
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + contentType;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import de.mhus.lib.core.MLog;
+import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.rest.core.api.CachedResponse;
+import de.mhus.rest.core.api.ResponseCache;
+import de.mhus.rest.core.api.RestApi;
+
+/**
+ * Response cache in memory. Bounded by the sum of the stored bytes, the least recently used
+ * entries are dropped first. Responses can be stored gzip compressed in addition.
+ */
+public class MemoryResponseCache extends MLog implements ResponseCache {
+
+    public static final CfgLong CFG_MAX_BYTES =
+            new CfgLong(RestApi.class, "responseCacheMaxBytes", 64 * 1024 * 1024);
+    public static final CfgLong CFG_MAX_ENTRY_SIZE =
+            new CfgLong(RestApi.class, "responseCacheMaxEntrySize", 1024 * 1024);
+    public static final CfgBoolean CFG_PRECOMPRESS =
+            new CfgBoolean(RestApi.class, "responseCachePrecompress", true);
+
+    private static final int MIN_COMPRESS_SIZE = 1024;
+
+    private final LinkedHashMap<String, CachedResponse> entries =
+            new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes = 0;
+
+    @Override
+    public CachedResponse get(String key) {
+        CachedResponse response;
+        synchronized (entries) {
+            response = entries.get(key);
+            if (response == null) return null;
+            if (response.isExpired()) {
+                remove(key);
+                return null;
+            }
+        }
+        response.hit();
+        return response;
+    }
+
+    @Override
+    public void put(CachedResponse response) {
+        long maxBytes = CFG_MAX_BYTES.value();
+        if (maxBytes <= 0 || response.getContent().length > getMaxEntrySize()) return;
+        // payloads are written with a new envelope, they can't be sent precompressed
+        if (CFG_PRECOMPRESS.value()
+                && !response.isPayload()
+                && response.getContent().length >= MIN_COMPRESS_SIZE)
+            response.setGzipContent(compress(response.getContent()));
+        synchronized (entries) {
+            remove(response.getKey());
+            entries.put(response.getKey(), response);
+            bytes += response.getSize();
+            Iterator<CachedResponse> iter = entries.values().iterator();
+            while (bytes > maxBytes && iter.hasNext()) {
+                bytes -= iter.next().getSize();
+                iter.remove();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        CachedResponse old = entries.remove(key);
+        if (old != null) bytes -= old.getSize();
+    }
+
+    private byte[] compress(byte[] content) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(content);
+            }
+            byte[] out2 = out.toByteArray();
+            return out2.length < content.length ? out2 : null;
+        } catch (Exception e) {
+            log().d("compress response failed", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void invalidate(String nodeId) {
+        if (nodeId == null) return;
+        synchronized (entries) {
+            Iterator<CachedResponse> iter = entries.values().iterator();
+            while (iter.hasNext()) {
+                CachedResponse response = iter.next();
+                if (nodeId.equals(response.getNodeId())) {
+                    bytes -= response.getSize();
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    @Override
+    public long getMaxEntrySize() {
+        return CFG_MAX_ENTRY_SIZE.value();
+    }
+
+    @Override
+    public List<CachedResponse> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries.values());
+        }
+    }
+
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the response through and keeps a copy of the bytes up to a maximum size. Used to fill the
+ * response cache.
+ */
+public class ResponseCapture extends OutputStream {
+
+    private final OutputStream out;
+    private final long maxSize;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    public ResponseCapture(OutputStream out, long maxSize) {
+        this.out = out;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (copy == null) return;
+        if (copy.size() + len > maxSize) copy = null; // too large
+        else copy.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the response stream is closed by the container
+    }
+
+    /**
+     * Return true if the whole content was captured.
+     *
+     * @return true if complete
+     */
+    public boolean isComplete() {
+        return copy != null;
+    }
+
+    public byte[] toByteArray() {
+        return copy == null ? null : copy.toByteArray();
+    }
+}
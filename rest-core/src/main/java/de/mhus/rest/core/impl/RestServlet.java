@@ -17,14 +17,26 @@ package de.mhus.rest.core.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -35,7 +47,10 @@ import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationToken;
 import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -45,10 +60,13 @@ import de.mhus.lib.basics.RC;
 import de.mhus.lib.core.IReadProperties;
 import de.mhus.lib.core.M;
 import de.mhus.lib.core.MJson;
+import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.aaa.Aaa;
 import de.mhus.lib.core.aaa.AccessApi;
 import de.mhus.lib.core.cfg.CfgBoolean;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
 import de.mhus.lib.core.cfg.CfgString;
 import de.mhus.lib.core.io.http.MHttp;
 import de.mhus.lib.core.logging.ITracer;
@@ -59,16 +77,32 @@ import de.mhus.lib.errors.AccessDeniedException;
 import de.mhus.lib.errors.MException;
 import de.mhus.lib.errors.MRuntimeException;
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.FairScheduler;
+import de.mhus.rest.core.PathCursor;
+import de.mhus.rest.core.RequestBody;
 import de.mhus.rest.core.RestAuthenticator;
 import de.mhus.rest.core.RestAuthenticatorByBasicAuth;
 import de.mhus.rest.core.RestAuthenticatorByJwt;
 import de.mhus.rest.core.RestAuthenticatorByTicket;
+import de.mhus.rest.core.RestBulkhead;
 import de.mhus.rest.core.RestRequest;
+import de.mhus.rest.core.api.AsyncNode;
+import de.mhus.rest.core.api.CacheableNode;
+import de.mhus.rest.core.api.CachedResponse;
 import de.mhus.rest.core.api.Node;
+import de.mhus.rest.core.api.ResponseCache;
+import de.mhus.rest.core.api.ResponseCachedNode;
 import de.mhus.rest.core.api.RestApi;
 import de.mhus.rest.core.api.RestException;
+import de.mhus.rest.core.api.RestFormat;
 import de.mhus.rest.core.api.RestResult;
 import de.mhus.rest.core.api.RestTranslationService;
+import de.mhus.rest.core.multipart.MultipartLimitException;
+import de.mhus.rest.core.result.JsonGeneratorResult;
+import de.mhus.rest.core.result.JsonResult;
+import de.mhus.rest.core.util.RestAsync;
+import de.mhus.rest.core.util.RestIdGenerator;
+import de.mhus.rest.core.util.RestUtil;
 import io.opentracing.Scope;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
@@ -88,12 +122,16 @@ public class RestServlet extends HttpServlet {
     private static final String PUBLIC_PATH_START = "/public/";
     private static final String PUBLIC_PATH = "/public";
 
+    private static final String ASYNC_ATTRIBUTE = RestServlet.class.getName() + ".async";
+    private static final String LIMITER_ATTRIBUTE = RestServlet.class.getName() + ".limiter";
+
     private Log log = Log.getLog(this);
 
     private static final long serialVersionUID = 1L;
 
-    private int nextId = 0;
+    private volatile RestApi restApi;
     private LinkedList<RestAuthenticator> authenticators = new LinkedList<>();
+    private LinkedList<RestFormat> formats = new LinkedList<>();
     private CfgString CFG_TRACE_ACTIVE = new CfgString(getClass(), "traceActivation", "");
     private CfgBoolean CFG_TRACE_FOLLOW = new CfgBoolean(getClass(), "traceFollow", true);
     private CfgBoolean CFG_TRACE_PATH = new CfgBoolean(getClass(), "tracePath", true);
@@ -104,6 +142,15 @@ public class RestServlet extends HttpServlet {
     private CfgString CFG_CORS_ORIGIN = new CfgString(getClass(), "corsOrigin", "*");
     private CfgString CFG_CORS_HEADERS = new CfgString(getClass(), "corsHeaders", "*");
 
+    private CfgInt CFG_ETAG_MAX_BODY = new CfgInt(getClass(), "etagMaxBodySize", 1024 * 1024);
+
+    private CfgBoolean CFG_ASYNC = new CfgBoolean(getClass(), "asyncDispatch", true);
+    private CfgLong CFG_ASYNC_TIMEOUT =
+            new CfgLong(getClass(), "asyncTimeout", MPeriod.MINUTE_IN_MILLISECONDS);
+
+    private CompressionSupport compression = new CompressionSupport(getClass());
+    private ConcurrencyLimiter limiter = new ConcurrencyLimiter(getClass());
+
     public RestServlet() {
         doInitialize();
     }
@@ -112,15 +159,105 @@ public class RestServlet extends HttpServlet {
         getAuthenticators().add(new RestAuthenticatorByJwt());
         getAuthenticators().add(new RestAuthenticatorByTicket());
         getAuthenticators().add(new RestAuthenticatorByBasicAuth());
+        // the first format is the default
+        getFormats().add(new JacksonRestFormat("json", JacksonRestFormat.JSON, new JsonFactory()));
+        addFormat(
+                JacksonRestFormat.create(
+                        "cbor",
+                        JacksonRestFormat.CBOR,
+                        "com.fasterxml.jackson.dataformat.cbor.CBORFactory"));
+        addFormat(
+                JacksonRestFormat.create(
+                        "smile",
+                        JacksonRestFormat.SMILE,
+                        "com.fasterxml.jackson.dataformat.smile.SmileFactory"));
+    }
+
+    protected void addFormat(RestFormat format) {
+        if (format != null) getFormats().add(format);
     }
 
     public RestApi getRestService() {
-        return M.l(RestApi.class);
+        RestApi api = restApi;
+        if (api == null) {
+            api = M.l(RestApi.class);
+            restApi = api;
+        }
+        return api;
     }
 
     @Override
     protected void service(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        // shed load before authentication and lookup
+        ConcurrencyLimiter.Permit permit = null;
+        if (limiter.isEnabled()) {
+            permit = limiter.acquire(isPriorityRequest(request));
+            if (permit == null) {
+                log.d("request shed by limiter", limiter.getInFlight(), limiter.getLimit());
+                response.setHeader("Retry-After", String.valueOf(limiter.getRetryAfter()));
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            request.setAttribute(LIMITER_ATTRIBUTE, permit);
+        }
+        CompressionSupport.CompressionResponse compressed = null;
+        try {
+            compressed = compression.wrap(request, response);
+            doService(request, compressed == null ? response : compressed);
+        } finally {
+            // asynchronous requests finish after the result is written
+            if (request.getAttribute(ASYNC_ATTRIBUTE) == null) {
+                try {
+                    if (compressed != null) compressed.finish();
+                } finally {
+                    if (permit != null) permit.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if the request is prioritized by the limiter. These are requests to the public
+     * path, e.g. health checks, and authenticated requests. The limiter runs before the login, a
+     * request is authenticated if the subject bound to the thread is authenticated (e.g. by a
+     * shiro filter) or if it carries credentials like a jwt or basic auth. The credentials are
+     * verified by the login, the request is rejected if they are not valid.
+     *
+     * @param request The request
+     * @return true if prioritized
+     */
+    protected boolean isPriorityRequest(HttpServletRequest request) {
+        String path = request.getPathInfo();
+        if (path != null && (path.equals(PUBLIC_PATH) || path.startsWith(PUBLIC_PATH_START)))
+            return true;
+        Subject subject = ThreadContext.getSubject();
+        if (subject != null && subject.isAuthenticated()) return true;
+        return findToken(new RestRequestWrapper(request)) != null;
+    }
+
+    private AuthenticationToken findToken(RestRequest request) {
+        for (RestAuthenticator authenticator : authenticators) {
+            AuthenticationToken token = authenticator.authenticate(request);
+            if (token != null) return token;
+        }
+        return null;
+    }
+
+    /* The limiter permit is released after the asynchronous request is completed. */
+    private void addLimiterListener(HttpServletRequest request, AsyncContext async) {
+        Object permit = request.getAttribute(LIMITER_ATTRIBUTE);
+        if (permit != null) async.addListener((ConcurrencyLimiter.Permit) permit);
+    }
+
+    /* Release the permit directly if the asynchronous request could not be completed. */
+    private void releasePermit(HttpServletRequest request) {
+        Object permit = request.getAttribute(LIMITER_ATTRIBUTE);
+        if (permit != null) ((ConcurrencyLimiter.Permit) permit).release();
+    }
+
+    protected void doService(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
         // System.out.println(">>> " + req.getPathInfo());
         response.setHeader("Access-Control-Allow-Origin", CFG_CORS_ORIGIN.value());
         response.setHeader("Access-Control-Allow-Methods", "GET, POST, DELETE, PUT, HEAD, OPTIONS");
@@ -232,26 +369,152 @@ public class RestServlet extends HttpServlet {
             final String finalMethod = method;
 
             // authenticate - find login token
-            AuthenticationToken token = null;
-            RestRequest restRequest = new RestRequestWrapper(request);
-            for (RestAuthenticator authenticator : authenticators) {
-                token = authenticator.authenticate(restRequest);
-                if (token != null) break;
-            }
+            AuthenticationToken token = findToken(new RestRequestWrapper(request));
 
             // create shiro Subject and execute
             final AuthenticationToken finalToken = token;
             Subject subject = M.l(AccessApi.class).createSubject();
-            subject.execute(
+            Callable<Object> handler =
                     () ->
                             serviceInSession(
-                                    request, response, path, finalMethod, finalToken, restService));
+                                    request, response, path, finalMethod, finalToken, restService);
+            ExecutorService executor = RestAsync.getHandlerExecutor();
+            if (executor != null && request.isAsyncSupported()) {
+                dispatch(executor, subject, request, response, handler);
+                return;
+            }
+            subject.execute(handler);
 
         } finally {
             if (scope != null) scope.close();
         }
     }
 
+    /**
+     * Execute the handler in a thread of the executor (e.g. a virtual thread) and release the
+     * container thread. The subject and the tracing span are carried to the handler thread. The
+     * handler writes the response blocking. The handler is not limited by the async timeout,
+     * there is no one to answer the timeout and complete the request. The blocking write to a
+     * stalled client is bounded by the idle timeout of the connection.
+     */
+    private void dispatch(
+            ExecutorService executor,
+            Subject subject,
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Callable<Object> handler) {
+        AsyncContext async = request.startAsync();
+        async.setTimeout(0);
+        addLimiterListener(request, async);
+        request.setAttribute(ASYNC_ATTRIBUTE, Boolean.TRUE);
+        Span span = ITracer.get().current();
+        Runnable task =
+                () -> {
+                    Scope scope = span == null ? null : ITracer.get().activate(span);
+                    try {
+                        subject.execute(handler);
+                    } catch (Throwable t) {
+                        log.d("request failed", t);
+                    } finally {
+                        try {
+                            if (response instanceof CompressionSupport.CompressionResponse)
+                                ((CompressionSupport.CompressionResponse) response).finish();
+                        } catch (Throwable t) {
+                            log.d("finish compression failed", t);
+                        }
+                        try {
+                            if (scope != null) scope.close();
+                        } finally {
+                            try {
+                                async.complete();
+                            } catch (Throwable t) {
+                                log.d("complete async request failed", t);
+                                releasePermit(request);
+                            }
+                        }
+                    }
+                };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.d("handler executor rejected request", e);
+            task.run();
+        }
+    }
+
+    /**
+     * Create the key of a cached response. It contains the node, path, sorted parameters, the
+     * Accept header and the scope of the node.
+     *
+     * @param req The request
+     * @param nodeId The node id
+     * @param path The path
+     * @param node The node
+     * @param callContext The context of the call
+     * @return The key
+     */
+    protected String createCacheKey(
+            HttpServletRequest req,
+            String nodeId,
+            String path,
+            ResponseCachedNode node,
+            CallContext callContext) {
+        StringBuilder key = new StringBuilder(nodeId).append('|').append(path).append('?');
+        TreeMap<String, String[]> params = new TreeMap<>(req.getParameterMap());
+        for (Map.Entry<String, String[]> entry : params.entrySet()) {
+            key.append(entry.getKey()).append('=');
+            if (entry.getValue() != null) key.append(String.join(",", entry.getValue()));
+            key.append('&');
+        }
+        key.append('|').append(req.getHeader("Accept"));
+        String scope = node.getResponseCacheScope(callContext);
+        if (scope != null) key.append('|').append(scope);
+        return key.toString();
+    }
+
+    /*
+     * Write a cached response. Json payloads are written as new result with its own envelope,
+     * other content as stored. The result security check is done for both.
+     */
+    private void writeCachedResponse(RequestState state, CachedResponse cached) throws IOException {
+        // do not store the response again
+        state.cacheKey = null;
+        if (cached.isPayload()) {
+            writeResult(state, JsonResult.fromPayload(cached.getContent()));
+            return;
+        }
+        if (!state.restService.checkSecurityResult(state.callContext, new CachedResult(cached))) {
+            log.d("cached result blocked by security", state.id, cached);
+            return;
+        }
+        HttpServletResponse resp = state.resp;
+        ConditionalRequest conditional = state.conditional;
+        resp.setStatus(cached.getStatus());
+        resp.setContentType(cached.getContentType());
+        byte[] gzip = cached.getGzipContent();
+        boolean hashBody = conditional != null && conditional.isHashBody();
+        if (gzip != null
+                && !hashBody
+                && resp instanceof CompressionSupport.CompressionResponse
+                && CompressionSupport.GZIP.equals(
+                        ((CompressionSupport.CompressionResponse) resp).getEncoding())) {
+            // send precompressed content, the response will not compress again
+            resp.setHeader("Content-Encoding", CompressionSupport.GZIP);
+            resp.setContentLength(gzip.length);
+            resp.getOutputStream().write(gzip);
+            return;
+        }
+        OutputStream out = resp.getOutputStream();
+        if (hashBody) {
+            ConditionalRequest.ETagStream eTagStream = conditional.createStream(out);
+            eTagStream.write(cached.getContent());
+            eTagStream.finish();
+            return;
+        }
+        resp.setContentLength(cached.getContent().length);
+        out.write(cached.getContent());
+    }
+
     private String arrayToString(String[] value) {
         if (value == null) return "null";
         if (value.length == 0) return "";
@@ -271,14 +534,12 @@ public class RestServlet extends HttpServlet {
         M.l(AccessApi.class).updateSessionLastAccessTime();
 
         // id
-        long id = newId();
+        long id = RestIdGenerator.instance().next();
         // subject
         Subject subject = SecurityUtils.getSubject();
         // parts of path
-        List<String> parts = new LinkedList<String>(Arrays.asList(path.split("/")));
-        if (parts.size() == 0) return null;
-        parts.remove(0); // [empty]
-        //      parts.remove(0); // rest
+        PathCursor parts = new PathCursor(path);
+        if (!parts.hasNext()) return null;
 
         // authenticate - login
         if (authToken != null) {
@@ -295,10 +556,8 @@ public class RestServlet extends HttpServlet {
         }
 
         Map<String, String[]> parameters = req.getParameterMap();
-        // check for payload and overlay parameters
-        // TODO implement payload
-        //        String body = req.getReader().lines()
-        //                .reduce("", (accumulator, actual) -> accumulator + actual);
+        // the payload is parsed lazy by CallContext.getBody(), json and form fields overlay the
+        // parameters if bodyParameterOverlay is enabled
 
         // create call context object
         CallContext callContext =
@@ -322,14 +581,17 @@ public class RestServlet extends HttpServlet {
                                 }),
                         MHttp.toMethod(method),
                         CFG_TRACE_RETURN.value());
+        callContext.setRestApi(restService);
+        callContext.setRequestId(id);
 
-        RestResult res = null;
+        RequestState state = new RequestState(id, req, resp, subject, restService, callContext);
 
         if (method.equals(MHttp.METHOD_HEAD)) {
             // nothing more to do
             return null;
         }
 
+        boolean async = false;
         try {
             if (!restService.checkSecurityPrepared(callContext)) {
                 log.d("request blocked by security", id, path);
@@ -350,6 +612,7 @@ public class RestServlet extends HttpServlet {
                         subject);
                 return null;
             }
+            state.item = item;
 
             // log access
             logAccess(
@@ -361,96 +624,343 @@ public class RestServlet extends HttpServlet {
                     req.getPathInfo(),
                     req.getParameterMap());
 
+            RestUtil.checkPermission(restService, item, callContext);
             if (method.equals(MHttp.METHOD_GET)) {
-                restService.checkPermission(item, "read", callContext);
-                res = item.doRead(callContext);
-            } else if (method.equals(MHttp.METHOD_POST)) {
-
-                if (callContext.hasAction()) {
-                    restService.checkPermission(item, callContext.getAction(), callContext);
-                    res = item.doAction(callContext);
-                } else {
-                    restService.checkPermission(item, "create", callContext);
-                    res = item.doCreate(callContext);
+                if (item instanceof CacheableNode) {
+                    state.conditional =
+                            new ConditionalRequest(req, resp, CFG_ETAG_MAX_BODY.value());
+                    if (state.conditional.isNotModified((CacheableNode) item, callContext)) {
+                        log.d("not modified", id);
+                        return null;
+                    }
+                }
+                if (item instanceof ResponseCachedNode
+                        && ((ResponseCachedNode) item).isResponseCacheable(callContext)) {
+                    ResponseCache responseCache = restService.getResponseCache();
+                    if (responseCache != null) {
+                        state.responseCache = responseCache;
+                        state.cachedNode = (ResponseCachedNode) item;
+                        state.cacheKey =
+                                createCacheKey(
+                                        req,
+                                        restService.getNodeId(item),
+                                        path,
+                                        state.cachedNode,
+                                        callContext);
+                        CachedResponse cached = responseCache.get(state.cacheKey);
+                        if (cached != null) {
+                            log.d("cached response", id, state.cacheKey);
+                            writeCachedResponse(state, cached);
+                            return null;
+                        }
+                    }
                 }
-            } else if (method.equals(MHttp.METHOD_PUT)) {
-                restService.checkPermission(item, "update", callContext);
-                res = item.doUpdate(callContext);
-            } else if (method.equals(MHttp.METHOD_DELETE)) {
-                restService.checkPermission(item, "delete", callContext);
-                res = item.doDelete(callContext);
-            } else if (method.equals(MHttp.METHOD_TRACE)) {
+            }
 
+            // dispatch fair by principal and priority, cached responses are not limited. The
+            // scheduler is acquired first, a request waiting in it must not hold a node slot.
+            FairScheduler scheduler = restService.getFairScheduler();
+            if (scheduler != null) {
+                Object principal = subject.getPrincipal();
+                if (principal == null) principal = restService.getRemoteAddress(req);
+                if (!scheduler.acquire(principal, RestUtil.getPriority(item, callContext))) {
+                    log.d("request rejected by scheduler", id, principal);
+                    sendUnavailable(state);
+                    return null;
+                }
+                state.scheduler = scheduler;
+            }
+            // limit concurrent requests of the node
+            RestBulkhead bulkhead = restService.getBulkhead(item);
+            if (bulkhead != null) {
+                if (!bulkhead.acquire()) {
+                    log.d("request rejected by bulkhead", id, bulkhead);
+                    sendUnavailable(state);
+                    return null;
+                }
+                state.bulkhead = bulkhead;
             }
 
-            if (res == null) {
-                sendError(
-                        id,
-                        req,
-                        resp,
-                        HttpServletResponse.SC_NOT_IMPLEMENTED,
-                        "unknown request type",
-                        null,
-                        null,
-                        subject);
-                return null;
+            if (item instanceof AsyncNode
+                    && CFG_ASYNC.value()
+                    && req.isAsyncSupported()
+                    && !req.isAsyncStarted()) {
+                CompletionStage<RestResult> stage =
+                        RestUtil.doRequestAsync((AsyncNode) item, callContext);
+                if (stage != null) {
+                    startAsync(state, stage);
+                    async = true;
+                    return null;
+                }
             }
 
-            try {
-                if (res != null) {
-                    //                    resp.setHeader("Encapsulated", "result");
-                    if (!restService.checkSecurityResult(callContext, res)) {
-                        log.d("result blocked by security", id, res);
-                        return null;
+            writeResult(state, RestUtil.doRequest(item, callContext));
+
+        } catch (Throwable t) {
+            onRequestError(state, t);
+        } finally {
+            if (!async) {
+                callContext.release();
+                releaseSlots(state);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Release the container thread and write the result after the stage is completed. The
+     * response is written non blocking by AsyncResponse. The subject and the tracing span are
+     * carried to the completing thread.
+     */
+    private void startAsync(RequestState state, CompletionStage<RestResult> stage) {
+        AsyncContext async = state.req.startAsync();
+        async.setTimeout(CFG_ASYNC_TIMEOUT.value());
+        addLimiterListener(state.req, async);
+        state.req.setAttribute(ASYNC_ATTRIBUTE, Boolean.TRUE);
+
+        // the compression writes into the async response
+        AsyncResponse asyncResp;
+        if (state.resp instanceof CompressionSupport.CompressionResponse) {
+            CompressionSupport.CompressionResponse compressed =
+                    (CompressionSupport.CompressionResponse) state.resp;
+            asyncResp = new AsyncResponse((HttpServletResponse) compressed.getResponse(), async);
+            compressed.setResponse(asyncResp);
+        } else {
+            asyncResp = new AsyncResponse(state.resp, async);
+            state.resp = asyncResp;
+        }
+
+        Span span = ITracer.get().current();
+        AtomicBoolean done = new AtomicBoolean();
+        async.addListener(
+                new AsyncListener() {
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) throws IOException {
+                        if (!done.compareAndSet(false, true)) {
+                            // timeout while writing the result, the writer waiting for the
+                            // client fails and the request is completed
+                            log.d("async request timeout while writing", state.id);
+                            asyncResp.abort(new IOException("request timeout"));
+                            releaseSlots(state);
+                            return;
+                        }
+                        // the node is not cancelled, it could still be holding resources. The
+                        // slots are held until it's finished and the late result is closed.
+                        log.d("async request timeout", state.id);
+                        finishAsync(
+                                state,
+                                asyncResp,
+                                span,
+                                null,
+                                new RestException(
+                                        "request timeout",
+                                        HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                                        null));
                     }
-                    log.d("result", id, res);
-                    int rc = res.getReturnCode();
-                    if (rc < 0)                      // should not happen any more - legacy
-                        resp.setStatus(RC.normalize(-rc));
-                    else
-                    if (rc == 0)                     // legacy
-                        resp.setStatus(RC.OK);
-                    else                             // default
-                        resp.setStatus(RC.normalize(rc));
-                    resp.setContentType(res.getContentType(callContext));
-                    res.write(callContext, resp.getWriter());
-                }
+
+                    @Override
+                    public void onError(AsyncEvent event) throws IOException {
+                        log.d("async request failed", state.id, event.getThrowable());
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) throws IOException {}
+
+                    @Override
+                    public void onComplete(AsyncEvent event) throws IOException {}
+                });
+
+        // never write in the container thread, it would block the write listener
+        stage.whenCompleteAsync(
+                (res, error) -> {
+                    // hold the slots until the node is finished, also after a timeout
+                    try {
+                        if (!done.compareAndSet(false, true)) closeResult(state, res);
+                        else finishAsync(state, asyncResp, span, res, error);
+                    } finally {
+                        state.callContext.release();
+                        releaseSlots(state);
+                    }
+                },
+                RestAsync.getExecutor());
+    }
+
+    private void sendUnavailable(RequestState state) throws IOException {
+        state.resp.setHeader("Retry-After", String.valueOf(RestBulkhead.CFG_RETRY_AFTER.value()));
+        sendError(
+                state.id,
+                state.req,
+                state.resp,
+                HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "Service Unavailable",
+                null,
+                null,
+                state.subject);
+    }
+
+    /*
+     * Release in reverse order of acquisition, the bulkhead slot is free before the scheduler
+     * dispatches the next request. Called by the writer and the timeout, the slots are released
+     * once.
+     */
+    private void releaseSlots(RequestState state) {
+        RestBulkhead bulkhead;
+        FairScheduler scheduler;
+        synchronized (state) {
+            bulkhead = state.bulkhead;
+            scheduler = state.scheduler;
+            state.bulkhead = null;
+            state.scheduler = null;
+        }
+        try {
+            if (bulkhead != null) bulkhead.release();
+        } finally {
+            if (scheduler != null) scheduler.release();
+        }
+    }
+
+    private void finishAsync(
+            RequestState state,
+            AsyncResponse asyncResp,
+            Span span,
+            RestResult res,
+            Throwable error) {
+        Scope scope = span == null ? null : ITracer.get().activate(span);
+        try {
+            state.subject.execute(
+                    () -> {
+                        if (error == null) writeResult(state, res);
+                        else
+                            onRequestError(
+                                    state,
+                                    error instanceof CompletionException
+                                                    && error.getCause() != null
+                                            ? error.getCause()
+                                            : error);
+                        return null;
+                    });
+        } catch (Throwable t) {
+            log.d("async request failed", state.id, t);
+        } finally {
+            try {
+                if (state.resp instanceof CompressionSupport.CompressionResponse)
+                    ((CompressionSupport.CompressionResponse) state.resp).finish();
             } catch (Throwable t) {
-                log.d(t);
-                sendError(
-                        id,
-                        req,
-                        resp,
-                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-                        t.getMessage(),
-                        t,
-                        null,
-                        subject);
-                return null;
+                log.d("finish compression failed", state.id, t);
+            }
+            try {
+                asyncResp.complete();
+            } catch (Throwable t) {
+                log.d("complete async request failed", state.id, t);
+                releasePermit(state.req);
+            } finally {
+                if (scope != null) scope.close();
             }
+        }
+    }
 
-        } catch (AccessDeniedException e) {
-            log.d(e);
-            sendError(id, req, resp, 404, e.getMessage(), e, null, subject);
-            return null;
-        } catch (RestException t) {
-            log.d(t);
+    private void writeResult(RequestState state, RestResult res) throws IOException {
+        long id = state.id;
+        HttpServletRequest req = state.req;
+        HttpServletResponse resp = state.resp;
+        CallContext callContext = state.callContext;
+        RestApi restService = state.restService;
+
+        if (res == null) {
             sendError(
                     id,
                     req,
                     resp,
-                    t.getReturnCode(),
-                    t.getMessage(),
-                    t,
-                    t.getParameters(),
-                    subject);
-            return null;
-        } catch (MException t) {
-            log.d(t);
-            sendError(id, req, resp, t.getReturnCode(), t.getMessage(), t, null, subject);
-        } catch (MRuntimeException t) {
-            log.d(t);
-            sendError(id, req, resp, t.getReturnCode(), t.getMessage(), t, null, subject);
+                    HttpServletResponse.SC_NOT_IMPLEMENTED,
+                    "unknown request type",
+                    null,
+                    null,
+                    state.subject);
+            return;
+        }
+
+        try {
+            //                    resp.setHeader("Encapsulated", "result");
+            if (!restService.checkSecurityResult(callContext, res)) {
+                log.d("result blocked by security", id, res);
+                return;
+            }
+            log.d("result", id, res);
+            int rc = res.getReturnCode();
+            if (rc < 0)                      // should not happen any more - legacy
+                resp.setStatus(RC.normalize(-rc));
+            else
+            if (rc == 0)                     // legacy
+                resp.setStatus(RC.OK);
+            else                             // default
+                resp.setStatus(RC.normalize(rc));
+            // the envelope of json results changes with every response, hash and cache the
+            // payload only, other results with envelope are not hashed or cached
+            boolean hashBody = state.conditional != null && state.conditional.isHashBody();
+            byte[] payload = null;
+            if (res instanceof JsonResult && (hashBody || state.cacheKey != null)) {
+                long max = 0;
+                if (hashBody) max = state.conditional.getMaxBodySize();
+                if (state.cacheKey != null)
+                    max = Math.max(max, state.responseCache.getMaxEntrySize());
+                payload = ((JsonResult) res).toPayload((int) Math.min(max, Integer.MAX_VALUE));
+                if (payload == null) state.cacheKey = null;
+            } else if (res instanceof JsonGeneratorResult) {
+                state.cacheKey = null;
+            }
+            if (hashBody) {
+                if (res instanceof JsonResult) {
+                    if (state.conditional.isPayloadNotModified(payload)) {
+                        log.d("not modified", id);
+                        return;
+                    }
+                } else if (res instanceof JsonGeneratorResult)
+                    state.conditional.disableHashBody();
+            }
+            RestFormat format = findFormat(req, callContext, res);
+            OutputStream out = resp.getOutputStream();
+            ConditionalRequest.ETagStream eTagStream = null;
+            if (state.conditional != null && state.conditional.isHashBody()) {
+                eTagStream = state.conditional.createStream(out);
+                out = eTagStream;
+            }
+            ResponseCapture capture = null;
+            if (state.cacheKey != null && payload == null) {
+                capture = new ResponseCapture(out, state.responseCache.getMaxEntrySize());
+                out = capture;
+            }
+            if (format != null) {
+                resp.setContentType(format.getContentType());
+                try (JsonGenerator generator = format.createGenerator(out)) {
+                    ((JsonGeneratorResult) res).write(callContext, generator);
+                }
+            } else {
+                resp.setContentType(res.getContentType(callContext));
+                res.write(callContext, out);
+            }
+            if (eTagStream != null) eTagStream.finish();
+            if (state.cacheKey != null && resp.getStatus() == HttpServletResponse.SC_OK) {
+                if (payload != null)
+                    state.responseCache.put(
+                            new CachedResponse(
+                                    state.cacheKey,
+                                    restService.getNodeId(state.item),
+                                    HttpServletResponse.SC_OK,
+                                    res.getContentType(callContext),
+                                    payload,
+                                    state.cachedNode.getResponseCacheTtl(callContext),
+                                    true));
+                else if (capture != null && capture.isComplete())
+                    state.responseCache.put(
+                            new CachedResponse(
+                                    state.cacheKey,
+                                    restService.getNodeId(state.item),
+                                    HttpServletResponse.SC_OK,
+                                    resp.getContentType(),
+                                    capture.toByteArray(),
+                                    state.cachedNode.getResponseCacheTtl(callContext)));
+            }
         } catch (Throwable t) {
             log.d(t);
             sendError(
@@ -461,10 +971,49 @@ public class RestServlet extends HttpServlet {
                     t.getMessage(),
                     t,
                     null,
-                    subject);
-            return null;
+                    state.subject);
+        } finally {
+            // release resources of streaming results, also if not written
+            closeResult(state, res);
         }
-        return null;
+    }
+
+    private void closeResult(RequestState state, RestResult res) {
+        if (res instanceof AutoCloseable)
+            try {
+                ((AutoCloseable) res).close();
+            } catch (Throwable t) {
+                log.d("close result failed", state.id, t);
+            }
+    }
+
+    private void onRequestError(RequestState state, Throwable t) throws IOException {
+        log.d(t);
+        int rc = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        IReadProperties parameters = null;
+        if (t instanceof AccessDeniedException) {
+            rc = 404;
+        } else if (t instanceof RestException) {
+            rc = ((RestException) t).getReturnCode();
+            parameters = ((RestException) t).getParameters();
+        } else if (t instanceof MException) {
+            rc = ((MException) t).getReturnCode();
+        } else if (t instanceof MRuntimeException) {
+            rc = ((MRuntimeException) t).getReturnCode();
+        } else if (t instanceof MultipartLimitException) {
+            rc = ((MultipartLimitException) t).getReturnCode();
+        } else if (t instanceof RequestBody.LimitExceededException) {
+            rc = ((RequestBody.LimitExceededException) t).getReturnCode();
+        }
+        sendError(
+                state.id,
+                state.req,
+                state.resp,
+                rc,
+                t.getMessage(),
+                t,
+                parameters,
+                state.subject);
     }
 
     public boolean isPublicPath(String path) {
@@ -548,10 +1097,6 @@ public class RestServlet extends HttpServlet {
         return out.toString();
     }
 
-    private synchronized long newId() {
-        return nextId++;
-    }
-
     private void sendError(
             long id,
             HttpServletRequest req,
@@ -582,7 +1127,16 @@ public class RestServlet extends HttpServlet {
 
             if (!resp.isCommitted()) resp.setStatus(RC.normalize(errNr));
 
-            PrintWriter w = resp.getWriter();
+            PrintWriter w;
+            try {
+                w = resp.getWriter();
+            } catch (IllegalStateException e) {
+                // the result already used the output stream
+                w =
+                        new PrintWriter(
+                                new OutputStreamWriter(
+                                        resp.getOutputStream(), StandardCharsets.UTF_8));
+            }
             ObjectMapper m = new ObjectMapper();
 
             ObjectNode json = m.createObjectNode();
@@ -590,6 +1144,8 @@ public class RestServlet extends HttpServlet {
                 parameters.forEach(entry -> MJson.setValue(json, entry.getKey(), entry.getValue()));
             json.put("_timestamp", System.currentTimeMillis());
             json.put("_sequence", id);
+            // ids are larger than the safe integers of javascript, the request id is a string
+            json.put("_request", String.valueOf(id));
             if (user != null) json.put("_user", String.valueOf(user.getPrincipal()));
             json.put("_error", errNr);
             json.put("_errorMessage", errMsg);
@@ -648,4 +1204,129 @@ public class RestServlet extends HttpServlet {
     public LinkedList<RestAuthenticator> getAuthenticators() {
         return authenticators;
     }
+
+    public LinkedList<RestFormat> getFormats() {
+        return formats;
+    }
+
+    /**
+     * Find the format of the result by the Accept header. Only json results can be encoded in
+     * another format.
+     *
+     * @param req The request
+     * @param callContext The context of the call
+     * @param res The result
+     * @return The format or null to write the result as it is
+     */
+    protected RestFormat findFormat(
+            HttpServletRequest req, CallContext callContext, RestResult res) {
+        if (formats.size() < 2 || !(res instanceof JsonGeneratorResult)) return null;
+        String accept = req.getHeader("Accept");
+        if (accept == null) return null;
+        String contentType = res.getContentType(callContext);
+        if (contentType == null || !contentType.startsWith(JacksonRestFormat.JSON)) return null;
+
+        RestFormat def = formats.getFirst();
+        RestFormat best = null;
+        double bestQ = 0;
+        for (String entry : accept.split(",")) {
+            String media = entry;
+            double q = 1;
+            int pos = entry.indexOf(';');
+            if (pos >= 0) {
+                media = entry.substring(0, pos);
+                q = getQuality(entry.substring(pos + 1));
+            }
+            if (q <= bestQ) continue;
+            media = media.trim().toLowerCase(Locale.ENGLISH);
+            RestFormat format = null;
+            if (media.equals("*/*") || media.equals("application/*")) format = def;
+            else
+                for (RestFormat f : formats)
+                    if (f.getContentType().equals(media)) {
+                        format = f;
+                        break;
+                    }
+            if (format != null) {
+                best = format;
+                bestQ = q;
+            }
+        }
+        return best == def ? null : best;
+    }
+
+    private double getQuality(String params) {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.startsWith("q="))
+                try {
+                    return Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+        return 1;
+    }
+
+    /* Cached content as result for the security check. */
+    private static class CachedResult implements RestResult {
+
+        private final CachedResponse cached;
+
+        private CachedResult(CachedResponse cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public void write(CallContext context, PrintWriter writer) throws Exception {
+            writer.write(new String(cached.getContent(), context.getResponseEncoding()));
+        }
+
+        @Override
+        public void write(CallContext context, OutputStream out) throws Exception {
+            out.write(cached.getContent());
+        }
+
+        @Override
+        public String getContentType(CallContext context) {
+            return cached.getContentType();
+        }
+
+        @Override
+        public int getReturnCode() {
+            return cached.getStatus();
+        }
+    }
+
+    private static class RequestState {
+
+        private final long id;
+        private final HttpServletRequest req;
+        private HttpServletResponse resp;
+        private final Subject subject;
+        private final RestApi restService;
+        private final CallContext callContext;
+        private Node item;
+        private ConditionalRequest conditional;
+        private ResponseCache responseCache;
+        private ResponseCachedNode cachedNode;
+        private String cacheKey;
+        private RestBulkhead bulkhead;
+        private FairScheduler scheduler;
+
+        private RequestState(
+                long id,
+                HttpServletRequest req,
+                HttpServletResponse resp,
+                Subject subject,
+                RestApi restService,
+                CallContext callContext) {
+            this.id = id;
+            this.req = req;
+            this.resp = resp;
+            this.subject = subject;
+            this.restService = restService;
+            this.callContext = callContext;
+        }
+    }
 }
@@ -17,6 +17,8 @@ package de.mhus.rest.core.impl;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.shiro.subject.Subject;
 import org.eclipse.jetty.websocket.api.Session;
@@ -24,6 +26,9 @@ import org.eclipse.jetty.websocket.api.WebSocketListener;
 
 import de.mhus.rest.core.CallContext;
 import de.mhus.rest.core.RestSocket;
+import de.mhus.rest.core.api.Node;
+import de.mhus.rest.core.util.RestAsync;
+import de.mhus.rest.core.util.SerialExecutor;
 import io.opentracing.Scope;
 
 public class RestWebSocket implements WebSocketListener, RestSocket {
@@ -34,7 +39,9 @@ public class RestWebSocket implements WebSocketListener, RestSocket {
     RestWebSocketServlet servlet;
     long id;
     String node;
+    volatile Node target;
     CallContext context;
+    private Executor executor;
 
     public RestWebSocket(RestWebSocketServlet servlet) {
         this.servlet = servlet;
@@ -66,6 +73,22 @@ public class RestWebSocket implements WebSocketListener, RestSocket {
         servlet.onWebSocketError(this, cause);
     }
 
+    /**
+     * Return the executor for the message handlers of this socket. The messages are processed one
+     * after the other. If too many messages are waiting, the callback thread is blocked and no
+     * more messages are read.
+     *
+     * @return The executor or null if the handlers are executed in the callback thread
+     */
+    synchronized Executor getExecutor() {
+        if (executor == null) {
+            ExecutorService handler = RestAsync.getHandlerExecutor();
+            if (handler == null) return null;
+            executor = new SerialExecutor(handler, servlet.getQueueSize());
+        }
+        return executor;
+    }
+
     @Override
     public void close(int rc, String msg) {
         servlet.close(this, rc, msg);
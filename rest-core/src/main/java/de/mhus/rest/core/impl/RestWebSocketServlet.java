@@ -24,6 +24,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Servlet;
 import javax.servlet.http.HttpServletResponse;
@@ -46,6 +47,7 @@ import de.mhus.lib.core.MPeriod;
 import de.mhus.lib.core.MString;
 import de.mhus.lib.core.aaa.Aaa;
 import de.mhus.lib.core.aaa.AccessApi;
+import de.mhus.lib.core.cfg.CfgInt;
 import de.mhus.lib.core.cfg.CfgLong;
 import de.mhus.lib.core.cfg.CfgString;
 import de.mhus.lib.core.io.http.MHttp;
@@ -54,6 +56,7 @@ import de.mhus.lib.core.logging.Log;
 import de.mhus.lib.errors.MException;
 import de.mhus.lib.errors.MRuntimeException;
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.RestAuthenticator;
 import de.mhus.rest.core.RestAuthenticatorByBasicAuth;
 import de.mhus.rest.core.RestAuthenticatorByJwt;
@@ -61,6 +64,7 @@ import de.mhus.rest.core.RestAuthenticatorByTicket;
 import de.mhus.rest.core.RestRequest;
 import de.mhus.rest.core.api.Node;
 import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.util.RestIdGenerator;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.propagation.Format;
@@ -95,9 +99,10 @@ public class RestWebSocketServlet extends WebSocketServlet {
     private CfgString CFG_TRACE_ACTIVE = new CfgString(getClass(), "traceActivation", "");
     private CfgLong CFG_IDLE_TIMEOUT =
             new CfgLong(getClass(), "idleTimeout", MPeriod.HOUR_IN_MILLISECONDS);
+    private CfgInt CFG_QUEUE_SIZE = new CfgInt(getClass(), "messageQueueSize", 100);
     private Set<RestWebSocket> sessions = Collections.synchronizedSet(new HashSet<>());
     private Log log = Log.getLog(this);
-    private int nextId = 0;
+    private volatile RestApi restApi;
 
     public RestWebSocketServlet() {
         doInitialize();
@@ -110,7 +115,21 @@ public class RestWebSocketServlet extends WebSocketServlet {
     }
 
     public RestApi getRestService() {
-        return M.l(RestApi.class);
+        RestApi api = restApi;
+        if (api == null) {
+            api = M.l(RestApi.class);
+            restApi = api;
+        }
+        return api;
+    }
+
+    /**
+     * Return the maximum of messages waiting for the handlers of a socket.
+     *
+     * @return The size, 0 for unbounded
+     */
+    public int getQueueSize() {
+        return CFG_QUEUE_SIZE.value();
     }
 
     @Override
@@ -225,6 +244,7 @@ public class RestWebSocketServlet extends WebSocketServlet {
             socket.session.close(rc, msg);
             socket.session.setIdleTimeout(1000);
             socket.session = null;
+            socket.target = null;
             getRestService().unregister(socket);
         }
     }
@@ -236,19 +256,17 @@ public class RestWebSocketServlet extends WebSocketServlet {
         M.l(AccessApi.class).updateSessionLastAccessTime();
 
         // id
-        long id = newId();
+        long id = RestIdGenerator.instance().next();
         socket.id = id;
         session.getUpgradeResponse().addHeader("RemoteIdent", String.valueOf(id));
         // subject
         Subject subject = SecurityUtils.getSubject();
         // parts of path
-        List<String> parts = new LinkedList<String>(Arrays.asList(path.split("/")));
-        if (parts.size() == 0) {
+        PathCursor parts = new PathCursor(path);
+        if (!parts.hasNext()) {
             onError(socket, null, HttpServletResponse.SC_NOT_FOUND, null, true);
             return;
         }
-        parts.remove(0); // [empty]
-        //      parts.remove(0); // rest
 
         // create call context object
         CallContext callContext =
@@ -262,6 +280,8 @@ public class RestWebSocketServlet extends WebSocketServlet {
 
         socket.context = callContext;
         RestApi restService = getRestService();
+        callContext.setRestApi(restService);
+        callContext.setRequestId(id);
 
         if (!restService.checkSecurityPrepared(callContext)) return;
 
@@ -275,6 +295,7 @@ public class RestWebSocketServlet extends WebSocketServlet {
             }
 
             socket.node = restService.getNodeId(item);
+            socket.target = item;
             sessions.add(socket);
             getRestService().register(socket);
 
@@ -367,6 +388,7 @@ public class RestWebSocketServlet extends WebSocketServlet {
             } catch (IOException e) {
             }
             socket.session = null;
+            socket.target = null;
             getRestService().unregister(socket);
         }
     }
@@ -376,8 +398,9 @@ public class RestWebSocketServlet extends WebSocketServlet {
         synchronized (socket) {
             if (socket.isClosed()) return;
         }
-        Node node = getRestService().getNode(socket.node);
-        socket.subject.execute(() -> node.streamingText(socket, message));
+        Node node = socket.target; // bound at connect time
+        if (node == null) return;
+        execute(socket, () -> node.streamingText(socket, message));
     }
 
     public void onWebSocketBinary(RestWebSocket socket, byte[] payload, int offset, int len) {
@@ -385,14 +408,43 @@ public class RestWebSocketServlet extends WebSocketServlet {
         synchronized (socket) {
             if (socket.isClosed()) return;
         }
-        Node node = getRestService().getNode(socket.node);
-        socket.subject.execute(() -> node.streamingBinary(socket, payload, offset, len));
+        Node node = socket.target; // bound at connect time
+        if (node == null) return;
+        if (socket.getExecutor() == null) {
+            socket.subject.execute(() -> node.streamingBinary(socket, payload, offset, len));
+            return;
+        }
+        // the payload buffer is not valid after the callback returns
+        byte[] copy = Arrays.copyOfRange(payload, offset, offset + len);
+        execute(socket, () -> node.streamingBinary(socket, copy, 0, len));
+    }
+
+    /*
+     * Execute the handler in the thread of the callback or by the executor of the socket. The
+     * executor keeps the order of the messages.
+     */
+    private void execute(RestWebSocket socket, Runnable handler) {
+        Executor executor = socket.getExecutor();
+        if (executor == null) {
+            socket.subject.execute(handler);
+            return;
+        }
+        Subject subject = socket.subject;
+        executor.execute(
+                () -> {
+                    try {
+                        subject.execute(handler);
+                    } catch (Throwable t) {
+                        log.d("socket handler failed", socket, t);
+                    }
+                });
     }
 
     public void onWebSocketClose(RestWebSocket socket, int statusCode, String reason) {
         synchronized (socket) {
             sessions.remove(socket);
             socket.session = null;
+            socket.target = null;
             getRestService().unregister(socket);
         }
     }
@@ -401,10 +453,6 @@ public class RestWebSocketServlet extends WebSocketServlet {
         return authenticators;
     }
 
-    private synchronized long newId() {
-        return nextId++;
-    }
-
     public boolean isPublicPath(String path) {
         return path.startsWith(PUBLIC_PATH_START) || path.equals(PUBLIC_PATH);
     }
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.multipart;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/** Thrown if a multipart request exceeds one of the configured limits. */
+public class MultipartLimitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MultipartLimitException(String msg) {
+        super(msg);
+    }
+
+    public int getReturnCode() {
+        return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.multipart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgLong;
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.api.RestApi;
+
+/**
+ * Streaming parser for multipart/form-data content. The parts are parsed one by one while the
+ * node reads them, the request is never buffered as a whole. The input is only read as fast as the
+ * node consumes the parts. A part not consumed completely is skipped if the next part is
+ * requested.
+ *
+ * <p>Parts can be stored with Part.store(), larger parts are spilled to temporary files. The
+ * stored parts are removed if the reader is closed, the RestServlet closes the reader at the end
+ * of the request.
+ */
+public class MultipartReader implements AutoCloseable {
+
+    public static final CfgLong CFG_MAX_SIZE =
+            new CfgLong(RestApi.class, "multipartMaxSize", 1024L * 1024 * 1024);
+    public static final CfgLong CFG_MAX_PART_SIZE =
+            new CfgLong(RestApi.class, "multipartMaxPartSize", 256L * 1024 * 1024);
+    public static final CfgInt CFG_MAX_PARTS = new CfgInt(RestApi.class, "multipartMaxParts", 100);
+    public static final CfgInt CFG_THRESHOLD =
+            new CfgInt(RestApi.class, "multipartThreshold", 64 * 1024);
+
+    public static final String CONTENT_TYPE = "multipart/form-data";
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buf;
+    private final long maxSize;
+    private final long maxPartSize;
+    private final int maxParts;
+    private final int threshold;
+    private final List<StoredPart> stored = new ArrayList<>();
+    private int pos;
+    private int limit;
+    private long total;
+    private boolean eof;
+    private boolean finished;
+    private int partCount;
+    private Part current;
+
+    public MultipartReader(InputStream in, String boundary) {
+        this(
+                in,
+                boundary,
+                CFG_MAX_SIZE.value(),
+                CFG_MAX_PART_SIZE.value(),
+                CFG_MAX_PARTS.value(),
+                CFG_THRESHOLD.value());
+    }
+
+    public MultipartReader(
+            InputStream in,
+            String boundary,
+            long maxSize,
+            long maxPartSize,
+            int maxParts,
+            int threshold) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buf = new byte[BUFFER_SIZE + delimiter.length];
+        this.maxSize = maxSize;
+        this.maxPartSize = maxPartSize;
+        this.maxParts = maxParts;
+        this.threshold = threshold;
+        // the first boundary is not preceded by a line break
+        buf[0] = '\r';
+        buf[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * Return the boundary parameter of a multipart content type.
+     *
+     * @param contentType The content type
+     * @return The boundary or null if the content type is not multipart/form-data
+     */
+    public static String getBoundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase().startsWith(CONTENT_TYPE)) return null;
+        String boundary = Part.getHeaderParameter(contentType, "boundary");
+        return boundary == null || boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * Return the next part. The remaining content of the current part is skipped.
+     *
+     * @return The part or null if no more parts are available
+     * @throws IOException If the content is not valid or a limit is exceeded
+     */
+    public Part next() throws IOException {
+        if (finished) return null;
+        if (current == null) {
+            // skip the preamble
+            skipPart();
+        } else {
+            current.skip();
+        }
+        current = null;
+        // after the delimiter follows '--' for the end or a line break
+        fill(2);
+        if (limit - pos < 2) throw new IOException("unexpected end of multipart content");
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        String rest = readLine();
+        if (!rest.trim().isEmpty()) throw new IOException("invalid multipart boundary");
+        if (maxParts > 0 && ++partCount > maxParts)
+            throw new MultipartLimitException("too many parts");
+
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        int headerSize = 0;
+        while (true) {
+            String line = readLine();
+            if (line.isEmpty()) break;
+            headerSize += line.length();
+            if (headerSize > MAX_HEADER_SIZE)
+                throw new MultipartLimitException("part headers too large");
+            int p = line.indexOf(':');
+            if (p < 0) continue;
+            headers.put(line.substring(0, p).trim().toLowerCase(), line.substring(p + 1).trim());
+        }
+        current = new Part(this, headers);
+        return current;
+    }
+
+    /**
+     * Read and store all remaining parts. See Part.store().
+     *
+     * @return The parts by field name, for multiple parts with the same name the first is returned
+     * @throws IOException
+     */
+    public Map<String, StoredPart> storeAll() throws IOException {
+        LinkedHashMap<String, StoredPart> out = new LinkedHashMap<>();
+        Part part;
+        while ((part = next()) != null) {
+            StoredPart s = part.store();
+            out.putIfAbsent(part.getName(), s);
+        }
+        return out;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getMaxPartSize() {
+        return maxPartSize;
+    }
+
+    /** Remove the stored parts. */
+    @Override
+    public void close() {
+        for (StoredPart part : stored)
+            try {
+                part.close();
+            } catch (Throwable t) {
+                MLogUtil.log().d("close part failed", part, t);
+            }
+        stored.clear();
+    }
+
+    void register(StoredPart part) {
+        stored.add(part);
+    }
+
+    /*
+     * Read content of the current part. Returns -1 if the delimiter is reached. The delimiter is
+     * consumed.
+     */
+    int readPart(byte[] b, int off, int len) throws IOException {
+        fill(delimiter.length);
+        int available = limit - pos;
+        int found = indexOfDelimiter();
+        int n;
+        if (found >= 0) {
+            if (found == pos) {
+                pos += delimiter.length;
+                return -1;
+            }
+            n = found - pos;
+        } else {
+            // bytes at the end could be the start of the delimiter
+            n = available - delimiter.length + 1;
+            if (n <= 0) throw new IOException("unexpected end of multipart content");
+        }
+        n = Math.min(n, len);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    private void skipPart() throws IOException {
+        byte[] tmp = new byte[BUFFER_SIZE];
+        while (readPart(tmp, 0, tmp.length) >= 0) ;
+    }
+
+    private int indexOfDelimiter() {
+        byte first = delimiter[0];
+        int end = limit - delimiter.length;
+        outer:
+        for (int i = pos; i <= end; i++) {
+            if (buf[i] != first) continue;
+            for (int j = 1; j < delimiter.length; j++)
+                if (buf[i + j] != delimiter[j]) continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = null;
+        int start = pos;
+        while (true) {
+            for (int i = pos; i < limit - 1; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n') {
+                    String part = new String(buf, start, i - start, StandardCharsets.UTF_8);
+                    pos = i + 2;
+                    return line == null ? part : line.append(part).toString();
+                }
+            }
+            // keep a trailing '\r' in the buffer
+            int end = limit > pos && buf[limit - 1] == '\r' ? limit - 1 : limit;
+            if (line == null) line = new StringBuilder();
+            line.append(new String(buf, start, end - start, StandardCharsets.UTF_8));
+            if (line.length() > MAX_HEADER_SIZE)
+                throw new MultipartLimitException("part header too large");
+            pos = end;
+            if (eof) throw new IOException("unexpected end of multipart content");
+            fill(limit - pos + 1);
+            start = pos;
+        }
+    }
+
+    private void fill(int need) throws IOException {
+        while (limit - pos < need && !eof) {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+                total += n;
+                if (maxSize > 0 && total > maxSize)
+                    throw new MultipartLimitException("multipart content too large");
+            }
+        }
+    }
+}
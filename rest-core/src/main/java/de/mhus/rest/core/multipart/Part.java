@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.multipart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A part of a multipart request. The content can be read once as stream while the request is
+ * parsed or stored with store(). The part is valid until the next part is requested.
+ */
+public class Part {
+
+    private final MultipartReader reader;
+    private final Map<String, String> headers;
+    private final String name;
+    private final String fileName;
+    private final PartInputStream stream = new PartInputStream();
+    private boolean streamUsed;
+
+    Part(MultipartReader reader, Map<String, String> headers) {
+        this.reader = reader;
+        this.headers = Collections.unmodifiableMap(headers);
+        String disposition = headers.get("content-disposition");
+        name = getHeaderParameter(disposition, "name");
+        fileName = getHeaderParameter(disposition, "filename");
+    }
+
+    /**
+     * Return the field name of the part.
+     *
+     * @return The name or null
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the name of the uploaded file.
+     *
+     * @return The file name or null if the part is not a file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean isFile() {
+        return fileName != null;
+    }
+
+    public String getContentType() {
+        return headers.get("content-type");
+    }
+
+    /**
+     * Return a header of the part.
+     *
+     * @param name The name of the header, case insensitive
+     * @return The value or null
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Return the content as stream. The stream reads directly from the request. It's limited to
+     * the max part size.
+     *
+     * @return The stream
+     */
+    public InputStream getInputStream() {
+        if (streamUsed) throw new IllegalStateException("part content already consumed");
+        streamUsed = true;
+        return stream;
+    }
+
+    /**
+     * Read the content as string, for form fields.
+     *
+     * @return The content
+     * @throws IOException
+     */
+    public String getString() throws IOException {
+        StoredPart s = store();
+        try {
+            return s.getString();
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * Read the content of the part and store it. Content up to the threshold is stored in memory,
+     * larger content is spilled to a temporary file. The file is removed if the stored part or the
+     * reader is closed.
+     *
+     * @return The stored part
+     * @throws IOException If the content can't be read or is too large
+     */
+    public StoredPart store() throws IOException {
+        InputStream is = getInputStream();
+        int threshold = reader.getThreshold();
+        byte[] buffer = new byte[Math.max(1024, Math.min(threshold, 8192))];
+        byte[] memory = new byte[0];
+        int memorySize = 0;
+        Path file = null;
+        FileChannel channel = null;
+        long size = 0;
+        try {
+            int n;
+            while ((n = is.read(buffer)) >= 0) {
+                size += n;
+                if (channel == null && memorySize + n <= threshold) {
+                    if (memorySize + n > memory.length) {
+                        int capacity = Math.max(memorySize + n, memory.length * 2);
+                        memory = Arrays.copyOf(memory, Math.min(threshold, capacity));
+                    }
+                    System.arraycopy(buffer, 0, memory, memorySize, n);
+                    memorySize += n;
+                    continue;
+                }
+                if (channel == null) {
+                    file = Files.createTempFile("rest-part", ".tmp");
+                    channel =
+                            FileChannel.open(
+                                    file,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.DELETE_ON_CLOSE);
+                    writeFully(channel, ByteBuffer.wrap(memory, 0, memorySize));
+                    memory = null;
+                }
+                writeFully(channel, ByteBuffer.wrap(buffer, 0, n));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) channel.close();
+            throw e;
+        }
+        StoredPart out;
+        if (channel == null)
+            out = new StoredPart(this, ByteBuffer.wrap(memory, 0, memorySize).slice(), null, null);
+        else {
+            channel.position(0);
+            out = new StoredPart(this, null, file, channel);
+        }
+        reader.register(out);
+        return out;
+    }
+
+    void skip() throws IOException {
+        streamUsed = true;
+        stream.skipAll();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Return a parameter of a header value like 'form-data; name="file"; filename="a.txt"'.
+     *
+     * @param value The header value
+     * @param name The parameter name
+     * @return The parameter or null
+     */
+    public static String getHeaderParameter(String value, String name) {
+        if (value == null) return null;
+        int len = value.length();
+        int i = value.indexOf(';');
+        while (i >= 0 && i < len) {
+            i++;
+            while (i < len && value.charAt(i) == ' ') i++;
+            int eq = value.indexOf('=', i);
+            if (eq < 0) return null;
+            String key = value.substring(i, eq).trim();
+            int start = eq + 1;
+            String v;
+            int next;
+            if (start < len && value.charAt(start) == '"') {
+                StringBuilder sb = new StringBuilder();
+                int j = start + 1;
+                while (j < len && value.charAt(j) != '"') {
+                    char c = value.charAt(j);
+                    if (c == '\\' && j + 1 < len) c = value.charAt(++j);
+                    sb.append(c);
+                    j++;
+                }
+                v = sb.toString();
+                next = value.indexOf(';', j);
+            } else {
+                next = value.indexOf(';', start);
+                v = value.substring(start, next < 0 ? len : next).trim();
+            }
+            if (key.equalsIgnoreCase(name)) return v;
+            i = next;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name + (fileName == null ? "" : " (" + fileName + ")");
+    }
+
+    private class PartInputStream extends InputStream {
+
+        private boolean done;
+        private long size;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (len == 0) return 0;
+            int n = reader.readPart(b, off, len);
+            if (n < 0) {
+                done = true;
+                return -1;
+            }
+            size += n;
+            long max = reader.getMaxPartSize();
+            if (max > 0 && size > max) throw new MultipartLimitException("part too large: " + name);
+            return n;
+        }
+
+        private void skipAll() throws IOException {
+            if (done) return;
+            // skipped content is not limited by the part size
+            byte[] tmp = new byte[8192];
+            while (reader.readPart(tmp, 0, tmp.length) >= 0) ;
+            done = true;
+        }
+    }
+}
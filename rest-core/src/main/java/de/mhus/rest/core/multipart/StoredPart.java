@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.multipart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The stored content of a part. Small content is hold in memory, larger content in a temporary
+ * file which is removed on close. File content can be accessed by the channel, by streams or as
+ * memory mapped buffer without loading it into the heap.
+ */
+public class StoredPart implements AutoCloseable {
+
+    private final Part part;
+    private final ByteBuffer memory;
+    private final Path file;
+    private final FileChannel channel;
+    private ByteBuffer mapped;
+    private boolean closed;
+
+    StoredPart(Part part, ByteBuffer memory, Path file, FileChannel channel) {
+        this.part = part;
+        this.memory = memory;
+        this.file = file;
+        this.channel = channel;
+    }
+
+    public String getName() {
+        return part.getName();
+    }
+
+    public String getFileName() {
+        return part.getFileName();
+    }
+
+    public String getContentType() {
+        return part.getContentType();
+    }
+
+    public String getHeader(String name) {
+        return part.getHeader(name);
+    }
+
+    public long getSize() throws IOException {
+        return memory != null ? memory.remaining() : channel.size();
+    }
+
+    public boolean isInMemory() {
+        return memory != null;
+    }
+
+    /**
+     * Return the temporary file. The file is deleted on close.
+     *
+     * @return The file or null if the content is in memory
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Return the channel of the temporary file. The channel is closed with the stored part.
+     *
+     * @return The channel or null if the content is in memory
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Return the content as read only buffer. Content stored in a file is mapped into memory.
+     *
+     * <p>A mapping can't be released explicitly, it stays valid until the buffer is garbage
+     * collected, also after close(). Until then the disk space of the deleted temporary file is
+     * not freed and on Windows the file can't be deleted. Use getInputStream() or getChannel()
+     * for large content, and do not keep the buffer longer than the request.
+     *
+     * @return The buffer
+     * @throws IOException
+     */
+    public synchronized ByteBuffer getBuffer() throws IOException {
+        checkClosed();
+        if (memory != null) return memory.asReadOnlyBuffer();
+        if (mapped == null) mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        return mapped.duplicate();
+    }
+
+    /**
+     * Return a new stream of the content. Streams do not share a position.
+     *
+     * @return The stream
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        checkClosed();
+        if (memory != null) return new BufferInputStream(memory.duplicate());
+        return new ChannelInputStream(channel);
+    }
+
+    public String getString() throws IOException {
+        Charset charset = StandardCharsets.UTF_8;
+        String type = getContentType();
+        String name = Part.getHeaderParameter(type, "charset");
+        if (name != null)
+            try {
+                charset = Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+            }
+        // the string is in the heap anyway, read without mapping the file
+        if (memory != null) return charset.decode(memory.duplicate()).toString();
+        checkClosed();
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) throw new IOException("part too large for a string");
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) break;
+        }
+        buffer.flip();
+        return charset.decode(buffer).toString();
+    }
+
+    /**
+     * Copy the content to a file. File content is transferred by the channels.
+     *
+     * @param target The target file, will be overwritten
+     * @throws IOException
+     */
+    public void copyTo(Path target) throws IOException {
+        checkClosed();
+        try (FileChannel out =
+                FileChannel.open(
+                        target,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (memory != null) {
+                ByteBuffer buffer = memory.duplicate();
+                while (buffer.hasRemaining()) out.write(buffer);
+                return;
+            }
+            long size = channel.size();
+            long position = 0;
+            while (position < size) position += channel.transferTo(position, size - position, out);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        // the mapping itself is released by the garbage collector
+        mapped = null;
+        if (channel != null) channel.close();
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed) throw new IOException("part closed: " + getName());
+    }
+
+    @Override
+    public String toString() {
+        return part + (memory != null ? " memory" : " " + file);
+    }
+
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private static class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+
+        private ChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            int n = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0) position += n;
+            return n;
+        }
+    }
+}
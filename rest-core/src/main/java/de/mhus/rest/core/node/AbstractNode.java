@@ -15,26 +15,31 @@
  */
 package de.mhus.rest.core.node;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.Reader;
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 import de.mhus.lib.core.MLog;
 import de.mhus.lib.core.MString;
-import de.mhus.lib.core.MSystem;
-import de.mhus.lib.core.pojo.MPojo;
 import de.mhus.lib.errors.UsageException;
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.RestSocket;
 import de.mhus.rest.core.annotation.RestAction;
 import de.mhus.rest.core.annotation.RestNode;
 import de.mhus.rest.core.api.Node;
+import de.mhus.rest.core.api.ResponseCache;
+import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.api.RestException;
 import de.mhus.rest.core.api.RestNodeService;
 import de.mhus.rest.core.api.RestResult;
 import de.mhus.rest.core.result.BinaryResult;
-import de.mhus.rest.core.result.JsonResult;
+import de.mhus.rest.core.result.FileResult;
 import de.mhus.rest.core.result.PlainTextResult;
 import de.mhus.rest.core.result.PojoResult;
 
@@ -43,18 +48,38 @@ public abstract class AbstractNode extends MLog implements RestNodeService {
     public static final String ID = "_id";
     public static final String OBJECT = "_obj";
 
-    private RestNode nodeDef;
-    private HashMap<String, Method> actions = null;
+    private final NodeDescriptor descriptor;
+    private final RestNode nodeDef;
+    private final Map<String, ActionInvoker> actions;
 
     @Override
     public Node lookup(List<String> parts, CallContext callContext) throws Exception {
         return this;
     }
 
+    @Override
+    public final Node lookup(PathCursor parts, CallContext callContext) throws Exception {
+        // the list based lookup is overwritten by a subclass, use it
+        if (descriptor.isLegacyLookup()) return lookup(parts.toList(), callContext);
+        return doLookup(parts, callContext);
+    }
+
+    /**
+     * Lookup the next node by cursor. Overwrite this method instead of the list based lookup.
+     *
+     * @param parts The remaining path
+     * @param callContext The context of the call
+     * @return The next node, this or null
+     * @throws Exception
+     */
+    protected Node doLookup(PathCursor parts, CallContext callContext) throws Exception {
+        return this;
+    }
+
     @Override
     public RestResult doRead(CallContext context) throws Exception {
         Object ret = doReadObject(context);
-        return doTransform(new Object() {}.getClass().getEnclosingMethod(), ret);
+        return doTransform(descriptor.getReadContentType(), ret);
     }
 
     public Object doReadObject(CallContext context) throws Exception {
@@ -64,7 +89,7 @@ public abstract class AbstractNode extends MLog implements RestNodeService {
     @Override
     public RestResult doCreate(CallContext context) throws Exception {
         Object ret = doCreateObject(context);
-        return doTransform(new Object() {}.getClass().getEnclosingMethod(), ret);
+        return doTransform(descriptor.getCreateContentType(), ret);
     }
 
     public Object doCreateObject(CallContext context) throws Exception {
@@ -74,7 +99,7 @@ public abstract class AbstractNode extends MLog implements RestNodeService {
     @Override
     public RestResult doDelete(CallContext context) throws Exception {
         Object ret = doDeleteObject(context);
-        return doTransform(new Object() {}.getClass().getEnclosingMethod(), ret);
+        return doTransform(descriptor.getDeleteContentType(), ret);
     }
 
     public Object doDeleteObject(CallContext context) throws Exception {
@@ -84,7 +109,7 @@ public abstract class AbstractNode extends MLog implements RestNodeService {
     @Override
     public RestResult doUpdate(CallContext context) throws Exception {
         Object ret = doUpdateObject(context);
-        return doTransform(new Object() {}.getClass().getEnclosingMethod(), ret);
+        return doTransform(descriptor.getUpdateContentType(), ret);
     }
 
     public Object doUpdateObject(CallContext context) throws Exception {
@@ -92,52 +117,26 @@ public abstract class AbstractNode extends MLog implements RestNodeService {
     }
 
     public AbstractNode() {
-        nodeDef = getClass().getAnnotation(RestNode.class);
-        for (Method method : MSystem.getMethods(getClass())) {
-            RestAction action = method.getAnnotation(RestAction.class);
-            if (action == null) continue;
-            if (actions == null) actions = new HashMap<>();
-            actions.put(action.name(), method);
-        }
+        descriptor = NodeDescriptor.of(getClass());
+        nodeDef = descriptor.getNodeDefinition();
+        actions = descriptor.getActions();
     }
 
     @Override
     public RestResult doAction(CallContext callContext) throws Exception {
-        if (actions != null) {
-            String actionName = callContext.getAction();
-            try {
-                Method action = actions.get(actionName);
-                if (action != null) {
-                    if (action.getParameterCount() == 2) {
-                        JsonResult result = new JsonResult();
-                        action.invoke(this, result, callContext);
-                        return result;
-                    } else if (action.getParameterCount() == 1) {
-                        Object res = action.invoke(this, callContext);
-                        return doTransform(action, res);
-                    } else if (action.getParameterCount() == 0) {
-                        Object res = action.invoke(this);
-                        return doTransform(action, res);
-                    } else log().w("action wrong number of parameters", actionName, action);
-                } else {
-                    log().w("action unknown", actionName);
-                }
-            } catch (Throwable t) {
-                log().d(actionName, callContext, t);
-            }
-        } else {
-            String methodName = "on" + MPojo.toFunctionName(callContext.getAction(), true, null);
-            try {
-                JsonResult result = new JsonResult();
-                Method method =
-                        getClass().getMethod(methodName, JsonResult.class, CallContext.class);
-                method.invoke(this, result, callContext);
-                return result;
-            } catch (java.lang.NoSuchMethodException e) {
-                log().d("action method not found", methodName);
-            } catch (Throwable t) {
-                log().d(methodName, callContext, t);
-            }
+        String actionName = callContext.getAction();
+        ActionInvoker action = descriptor.getAction(actionName);
+        if (action == null) {
+            if (actions != null) log().w("action unknown", actionName);
+            else log().d("action method not found", actionName);
+            return null;
+        }
+        try {
+            return action.invoke(this, callContext);
+        } catch (RestException e) {
+            throw e;
+        } catch (Throwable t) {
+            log().d(actionName, callContext, t);
         }
         return null;
     }
@@ -147,8 +146,19 @@ public abstract class AbstractNode extends MLog implements RestNodeService {
         if (res instanceof RestResult) return (RestResult) res;
 
         RestAction actionAnno = action.getAnnotation(RestAction.class);
-        String type = actionAnno == null ? "text/plain" : actionAnno.contentType();
+        String type =
+                actionAnno == null ? NodeDescriptor.DEFAULT_CONTENT_TYPE : actionAnno.contentType();
+        return doTransform(type, res);
+    }
+
+    public RestResult doTransform(String type, Object res) {
+        if (res == null) return null;
+        if (res instanceof RestResult) return (RestResult) res;
 
+        if (res instanceof FileInputStream)
+            return new FileResult(((FileInputStream) res).getChannel(), type);
+        if (res instanceof File) return new FileResult((File) res, type);
+        if (res instanceof Path) return new FileResult((Path) res, type);
         if (res instanceof InputStream) return new BinaryResult((InputStream) res, type);
         if (res instanceof Reader) return new BinaryResult((Reader) res, type);
         if (res instanceof String) return new PlainTextResult((String) res, type);
@@ -189,8 +199,43 @@ public abstract class AbstractNode extends MLog implements RestNodeService {
      * @return x
      */
     public String getManagedClassName() {
-        String ret = MSystem.getTemplateCanonicalName(getClass(), 0);
-        return ret == null ? Void.class.getCanonicalName() : ret;
+        return descriptor.getManagedClassName();
+    }
+
+    /**
+     * Return the key of the current object id in the call context.
+     *
+     * @return The key
+     */
+    protected String getIdKey() {
+        if (descriptor.isManagedClassNameOverwritten()) return getManagedClassName() + ID;
+        return descriptor.getIdKey();
+    }
+
+    /**
+     * Return the key of the current object in the call context.
+     *
+     * @return The key
+     */
+    protected String getObjectKey() {
+        if (descriptor.isManagedClassNameOverwritten()) return getManagedClassName() + OBJECT;
+        return descriptor.getObjectKey();
+    }
+
+    public NodeDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /**
+     * Drop the cached read responses of this node. Must be called by nodes implementing
+     * ResponseCachedNode if the data changes.
+     *
+     * @param callContext The context of the call
+     */
+    protected void invalidateResponseCache(CallContext callContext) {
+        RestApi api = callContext.getRestApi();
+        ResponseCache cache = api.getResponseCache();
+        if (cache != null) cache.invalidate(api.getNodeId(this));
     }
 
     public static <T> String getIdFromContext(CallContext callContext, Class<T> clazz) {
@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.node;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+
+import javax.servlet.http.HttpServletResponse;
+
+import de.mhus.lib.core.MString;
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.RequestBody;
+import de.mhus.rest.core.annotation.RestAction;
+import de.mhus.rest.core.annotation.RestParameter;
+import de.mhus.rest.core.api.RestException;
+import de.mhus.rest.core.api.RestPriority;
+import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.result.JsonResult;
+import de.mhus.rest.core.util.PojoBinder;
+import de.mhus.rest.core.util.ValueConverter;
+
+/**
+ * Precompiled call of an action method. The method is bound to a MethodHandle once, invocations
+ * do not need reflection.
+ */
+public abstract class ActionInvoker {
+
+    protected final Method method;
+    protected final String contentType;
+    protected final RestPriority priority;
+
+    protected ActionInvoker(Method method) {
+        this.method = method;
+        RestAction actionAnno = method == null ? null : method.getAnnotation(RestAction.class);
+        contentType =
+                actionAnno == null ? NodeDescriptor.DEFAULT_CONTENT_TYPE : actionAnno.contentType();
+        priority = actionAnno == null ? RestPriority.DEFAULT : actionAnno.priority();
+    }
+
+    /**
+     * Execute the action.
+     *
+     * @param node The node instance
+     * @param callContext The context of the call
+     * @return The result or null
+     * @throws Throwable
+     */
+    public abstract RestResult invoke(AbstractNode node, CallContext callContext)
+            throws Throwable;
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public RestPriority getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(method);
+    }
+
+    /**
+     * Create an invoker for a method with RestAction annotation. Supported are the signatures (),
+     * (CallContext) and (JsonResult, CallContext). Other signatures are bound parameter by
+     * parameter, allowed are CallContext, JsonResult, RequestBody and parameters annotated with
+     * RestParameter.
+     *
+     * @param method The method
+     * @return The invoker or null if the method is not supported
+     */
+    public static ActionInvoker create(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        ParameterResolver[] resolvers = null;
+        if (!isLegacySignature(types)) {
+            resolvers = createResolvers(method);
+            if (resolvers == null) return null;
+        }
+        MethodHandle handle = toHandle(method);
+        if (handle == null) return null;
+        if (resolvers != null) return new BoundInvoker(method, handle, resolvers);
+        switch (types.length) {
+            case 0:
+                return new NoParameterInvoker(method, handle);
+            case 1:
+                return new ContextInvoker(method, handle);
+            default:
+                return new ResultInvoker(method, handle);
+        }
+    }
+
+    private static boolean isLegacySignature(Class<?>[] types) {
+        switch (types.length) {
+            case 0:
+                return true;
+            case 1:
+                return types[0] == CallContext.class;
+            case 2:
+                return types[0] == JsonResult.class && types[1] == CallContext.class;
+            default:
+                return false;
+        }
+    }
+
+    private static ParameterResolver[] createResolvers(Method method) {
+        Parameter[] parameters = method.getParameters();
+        ParameterResolver[] resolvers = new ParameterResolver[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            resolvers[i] = createResolver(parameters[i]);
+            if (resolvers[i] == null) {
+                MLogUtil.log().w("action parameter not supported", method, parameters[i]);
+                return null;
+            }
+        }
+        return resolvers;
+    }
+
+    private static ParameterResolver createResolver(Parameter parameter) {
+        Class<?> type = parameter.getType();
+        if (type == CallContext.class) return (ctx, result) -> ctx;
+        if (type == JsonResult.class) return (ctx, result) -> result;
+        if (type == RequestBody.class) return (ctx, result) -> ctx.getBody();
+        RestParameter def = parameter.getAnnotation(RestParameter.class);
+        if (def == null) return null;
+
+        ValueConverter converter = ValueConverter.create(type);
+        if (converter != null) {
+            String name = def.value();
+            if (MString.isEmpty(name)) {
+                if (!parameter.isNamePresent()) return null;
+                name = parameter.getName();
+            }
+            return new ValueResolver(name, def, type, converter);
+        }
+        if (type.isPrimitive() || type.isArray() || type.isInterface()) return null;
+        PojoBinder binder = PojoBinder.of(type);
+        if (!binder.canCreate()) return null;
+        return (ctx, result) -> {
+            try {
+                return binder.create(ctx::getParameter);
+            } catch (IllegalArgumentException e) {
+                throw new RestException(
+                        "parameter invalid: " + e.getMessage(),
+                        HttpServletResponse.SC_BAD_REQUEST,
+                        null);
+            }
+        };
+    }
+
+    /**
+     * Create an invoker for a method with the signature (JsonResult, CallContext).
+     *
+     * @param method The method
+     * @return The invoker or null if the method can't be bound
+     */
+    public static ActionInvoker createResultInvoker(Method method) {
+        MethodHandle handle = toHandle(method);
+        if (handle == null) return null;
+        return new ResultInvoker(method, handle);
+    }
+
+    protected static MethodHandle toHandle(Method method) {
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method);
+            // generic signature (node, args...) -> Object
+            return handle.asType(MethodType.genericMethodType(method.getParameterCount() + 1));
+        } catch (Throwable t) {
+            MLogUtil.log().w("can't bind action method", method, t);
+            return null;
+        }
+    }
+
+    private static class NoParameterInvoker extends ActionInvoker {
+
+        private final MethodHandle handle;
+
+        private NoParameterInvoker(Method method, MethodHandle handle) {
+            super(method);
+            this.handle = handle;
+        }
+
+        @Override
+        public RestResult invoke(AbstractNode node, CallContext callContext) throws Throwable {
+            Object res = (Object) handle.invokeExact((Object) node);
+            return node.doTransform(contentType, res);
+        }
+    }
+
+    private static class ContextInvoker extends ActionInvoker {
+
+        private final MethodHandle handle;
+
+        private ContextInvoker(Method method, MethodHandle handle) {
+            super(method);
+            this.handle = handle;
+        }
+
+        @Override
+        public RestResult invoke(AbstractNode node, CallContext callContext) throws Throwable {
+            Object res = (Object) handle.invokeExact((Object) node, (Object) callContext);
+            return node.doTransform(contentType, res);
+        }
+    }
+
+    private static class ResultInvoker extends ActionInvoker {
+
+        private final MethodHandle handle;
+
+        private ResultInvoker(Method method, MethodHandle handle) {
+            super(method);
+            this.handle = handle;
+        }
+
+        @Override
+        public RestResult invoke(AbstractNode node, CallContext callContext) throws Throwable {
+            JsonResult result = new JsonResult();
+            Object ignore =
+                    (Object) handle.invokeExact((Object) node, (Object) result, (Object) callContext);
+            return result;
+        }
+    }
+
+    private static class BoundInvoker extends ActionInvoker {
+
+        private final MethodHandle handle;
+        private final ParameterResolver[] resolvers;
+        private final boolean needResult;
+
+        private BoundInvoker(Method method, MethodHandle handle, ParameterResolver[] resolvers) {
+            super(method);
+            // (node, args...) -> (node, Object[])
+            this.handle = handle.asSpreader(Object[].class, resolvers.length);
+            this.resolvers = resolvers;
+            boolean r = false;
+            for (Class<?> type : method.getParameterTypes()) if (type == JsonResult.class) r = true;
+            needResult = r;
+        }
+
+        @Override
+        public RestResult invoke(AbstractNode node, CallContext callContext) throws Throwable {
+            JsonResult result = needResult ? new JsonResult() : null;
+            // validate all parameters before the action is executed
+            Object[] args = new Object[resolvers.length];
+            for (int i = 0; i < resolvers.length; i++)
+                args[i] = resolvers[i].resolve(callContext, result);
+            Object res = (Object) handle.invokeExact((Object) node, args);
+            if (result != null) return result;
+            return node.doTransform(contentType, res);
+        }
+    }
+
+    private interface ParameterResolver {
+        Object resolve(CallContext callContext, JsonResult result) throws Exception;
+    }
+
+    private static class ValueResolver implements ParameterResolver {
+
+        private final String name;
+        private final boolean required;
+        private final Object def;
+        private final ValueConverter converter;
+
+        private ValueResolver(
+                String name, RestParameter definition, Class<?> type, ValueConverter converter) {
+            this.name = name;
+            this.required = definition.required();
+            this.converter = converter;
+            Object d = ValueConverter.getDefault(type);
+            if (!MString.isEmpty(definition.def())) {
+                try {
+                    d = converter.convert(definition.def());
+                } catch (Exception e) {
+                    MLogUtil.log().w("invalid default value", name, definition.def(), e);
+                }
+            }
+            this.def = d;
+        }
+
+        @Override
+        public Object resolve(CallContext callContext, JsonResult result) throws Exception {
+            String value = callContext.getParameter(name);
+            if (value == null || (value.isEmpty() && converter != ValueConverter.STRING)) {
+                if (required)
+                    throw new RestException(
+                            "parameter missing: " + name, HttpServletResponse.SC_BAD_REQUEST, null);
+                return def;
+            }
+            try {
+                return converter.convert(value);
+            } catch (Exception e) {
+                throw new RestException(
+                        "parameter invalid: " + name, HttpServletResponse.SC_BAD_REQUEST, null);
+            }
+        }
+    }
+}
@@ -19,11 +19,14 @@ import de.mhus.lib.errors.NotSupportedException;
 import de.mhus.rest.core.CallContext;
 import de.mhus.rest.core.api.RestResult;
 import de.mhus.rest.core.result.JsonResult;
+import de.mhus.rest.core.result.JsonStreamResult;
 
 public abstract class JsonListNode<T> extends ListNode<T> {
 
     @Override
     public RestResult doRead(CallContext callContext) throws Exception {
+        JsonStreamResult stream = doReadStream(callContext);
+        if (stream != null) return stream;
         JsonResult result = new JsonResult();
         doRead(result, callContext);
         return result;
@@ -31,6 +34,19 @@ public abstract class JsonListNode<T> extends ListNode<T> {
 
     public abstract void doRead(JsonResult result, CallContext callContext) throws Exception;
 
+    /**
+     * Return a streaming result for the read request or null to create the result with
+     * doRead(JsonResult, CallContext). Streaming avoids the creation of the whole json tree for
+     * large lists.
+     *
+     * @param callContext The context of the call
+     * @return The streaming result or null
+     * @throws Exception
+     */
+    protected JsonStreamResult doReadStream(CallContext callContext) throws Exception {
+        return null;
+    }
+
     @Override
     public RestResult doCreate(CallContext callContext) throws Exception {
         JsonResult result = new JsonResult();
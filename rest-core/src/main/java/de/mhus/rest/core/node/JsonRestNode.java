@@ -19,6 +19,7 @@ import java.util.List;
 
 import de.mhus.lib.errors.NotSupportedException;
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.api.Node;
 import de.mhus.rest.core.api.RestResult;
 import de.mhus.rest.core.result.JsonResult;
@@ -32,6 +33,13 @@ public class JsonRestNode extends AbstractNode {
         return callContext.lookup(parts, getClass());
     }
 
+    @Override
+    protected Node doLookup(PathCursor parts, CallContext callContext) throws Exception {
+
+        if (!parts.hasNext()) return this;
+        return callContext.lookup(parts, getClass());
+    }
+
     @Override
     public RestResult doRead(CallContext context) throws Exception {
         JsonResult result = new JsonResult();
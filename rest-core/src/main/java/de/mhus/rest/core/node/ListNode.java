@@ -18,6 +18,7 @@ package de.mhus.rest.core.node;
 import java.util.List;
 
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.api.Node;
 
 public abstract class ListNode<T> extends AbstractNode {
@@ -36,21 +37,39 @@ public abstract class ListNode<T> extends AbstractNode {
 
         if (obj == null) return null;
 
-        callContext.put(getManagedClassName() + ID, id);
-        callContext.put(getManagedClassName() + OBJECT, obj);
+        callContext.put(getIdKey(), id);
+        callContext.put(getObjectKey(), obj);
 
         if (parts.size() < 1) return this;
 
         return callContext.lookup(parts, getClass());
     }
 
+    @Override
+    protected Node doLookup(PathCursor parts, CallContext callContext) throws Exception {
+        if (!parts.hasNext()) return this;
+
+        String id = parts.next();
+
+        T obj = getObjectForId(callContext, id);
+
+        if (obj == null) return null;
+
+        callContext.put(getIdKey(), id);
+        callContext.put(getObjectKey(), obj);
+
+        if (!parts.hasNext()) return this;
+
+        return callContext.lookup(parts, getClass());
+    }
+
     @SuppressWarnings("unchecked")
     protected T getObjectFromContext(CallContext callContext) {
-        return (T) callContext.get(getManagedClassName() + OBJECT);
+        return (T) callContext.get(getObjectKey());
     }
 
     protected String getIdFromContext(CallContext callContext) {
-        return (String) callContext.get(getManagedClassName() + ID);
+        return (String) callContext.get(getIdKey());
     }
 
     protected abstract T getObjectForId(CallContext context, String id) throws Exception;
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.node;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.mhus.lib.core.MSystem;
+import de.mhus.lib.core.pojo.MPojo;
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
+import de.mhus.rest.core.annotation.RestAction;
+import de.mhus.rest.core.annotation.RestNode;
+import de.mhus.rest.core.api.RestPriority;
+import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.result.JsonResult;
+import de.mhus.rest.core.transform.ObjectTransformer;
+
+/**
+ * Metadata of a node class. The descriptor is created once per class and shared by all instances.
+ * It holds everything the dispatching needs to know about the class to avoid reflection while
+ * processing requests.
+ */
+public class NodeDescriptor {
+
+    public static final String DEFAULT_CONTENT_TYPE = "text/plain";
+
+    private static final int MAX_CACHED_ACTIONS = 1000;
+
+    private static final ActionInvoker NOT_FOUND =
+            new ActionInvoker(null) {
+                @Override
+                public RestResult invoke(AbstractNode node, CallContext callContext) {
+                    return null;
+                }
+            };
+
+    private static final ClassValue<NodeDescriptor> DESCRIPTORS =
+            new ClassValue<NodeDescriptor>() {
+                @Override
+                protected NodeDescriptor computeValue(Class<?> type) {
+                    return new NodeDescriptor(type);
+                }
+            };
+
+    private final Class<?> nodeClass;
+    private final RestNode nodeDef;
+    private final String managedClassName;
+    private final boolean managedClassNameOverwritten;
+    private final String idKey;
+    private final String objectKey;
+    private final String readContentType;
+    private final String createContentType;
+    private final String updateContentType;
+    private final String deleteContentType;
+    private final ObjectTransformer transformer;
+    private final Map<String, ActionInvoker> actions;
+    private final Map<String, ActionInvoker> onMethods;
+    private final ConcurrentHashMap<String, ActionInvoker> onActions = new ConcurrentHashMap<>();
+    private final boolean legacyLookup;
+    private final RestPriority priority;
+
+    protected NodeDescriptor(Class<?> nodeClass) {
+        this.nodeClass = nodeClass;
+        nodeDef = nodeClass.getAnnotation(RestNode.class);
+
+        String managed = MSystem.getTemplateCanonicalName(nodeClass, 0);
+        managedClassName = managed == null ? Void.class.getCanonicalName() : managed;
+        Class<?> managedDecl = findDeclaringClass(nodeClass, "getManagedClassName");
+        managedClassNameOverwritten = managedDecl != null && managedDecl != AbstractNode.class;
+        idKey = managedClassName + AbstractNode.ID;
+        objectKey = managedClassName + AbstractNode.OBJECT;
+
+        readContentType = findContentType(nodeClass, "doRead");
+        createContentType = findContentType(nodeClass, "doCreate");
+        updateContentType = findContentType(nodeClass, "doUpdate");
+        deleteContentType = findContentType(nodeClass, "doDelete");
+
+        transformer = ObjectTransformer.create(nodeClass);
+        priority =
+                nodeDef == null || nodeDef.priority() == RestPriority.DEFAULT
+                        ? RestPriority.NORMAL
+                        : nodeDef.priority();
+
+        HashMap<String, ActionInvoker> a = null;
+        for (Method method : MSystem.getMethods(nodeClass)) {
+            RestAction action = method.getAnnotation(RestAction.class);
+            if (action == null) continue;
+            if (a == null) a = new HashMap<>();
+            ActionInvoker invoker = ActionInvoker.create(method);
+            if (invoker != null) a.put(action.name(), invoker);
+        }
+        actions = a == null ? null : Collections.unmodifiableMap(a);
+
+        // public methods of the pattern onAction(JsonResult, CallContext)
+        HashMap<String, ActionInvoker> o = new HashMap<>();
+        if (actions == null) {
+            for (Method method : nodeClass.getMethods()) {
+                if (!method.getName().startsWith("on")
+                        || method.getParameterCount() != 2
+                        || method.getParameterTypes()[0] != JsonResult.class
+                        || method.getParameterTypes()[1] != CallContext.class) continue;
+                ActionInvoker invoker = ActionInvoker.createResultInvoker(method);
+                if (invoker != null) o.put(method.getName(), invoker);
+            }
+        }
+        onMethods = o;
+
+        Class<?> listLookup =
+                findDeclaringClass(nodeClass, "lookup", List.class, CallContext.class);
+        Class<?> cursorLookup =
+                findDeclaringClass(nodeClass, "doLookup", PathCursor.class, CallContext.class);
+        legacyLookup =
+                listLookup != null
+                        && cursorLookup != null
+                        && listLookup != cursorLookup
+                        && cursorLookup.isAssignableFrom(listLookup);
+    }
+
+    public static NodeDescriptor of(Class<?> nodeClass) {
+        return DESCRIPTORS.get(nodeClass);
+    }
+
+    private static String findContentType(Class<?> clazz, String name) {
+        try {
+            Method method = clazz.getMethod(name, CallContext.class);
+            RestAction actionAnno = method.getAnnotation(RestAction.class);
+            if (actionAnno != null) return actionAnno.contentType();
+        } catch (NoSuchMethodException e) {
+        }
+        return DEFAULT_CONTENT_TYPE;
+    }
+
+    static Class<?> findDeclaringClass(
+            Class<?> clazz, String name, Class<?>... parameterTypes) {
+        Class<?> current = clazz;
+        while (current != null) {
+            try {
+                current.getDeclaredMethod(name, parameterTypes);
+                return current;
+            } catch (NoSuchMethodException e) {
+                current = current.getSuperclass();
+            }
+        }
+        return null;
+    }
+
+    public Class<?> getNodeClass() {
+        return nodeClass;
+    }
+
+    public RestNode getNodeDefinition() {
+        return nodeDef;
+    }
+
+    public String getManagedClassName() {
+        return managedClassName;
+    }
+
+    /**
+     * Return true if the node class overwrites getManagedClassName(). In this case the context
+     * keys must be created from the node.
+     *
+     * @return true if overwritten
+     */
+    public boolean isManagedClassNameOverwritten() {
+        return managedClassNameOverwritten;
+    }
+
+    public String getIdKey() {
+        return idKey;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public String getReadContentType() {
+        return readContentType;
+    }
+
+    public String getCreateContentType() {
+        return createContentType;
+    }
+
+    public String getUpdateContentType() {
+        return updateContentType;
+    }
+
+    public String getDeleteContentType() {
+        return deleteContentType;
+    }
+
+    public ObjectTransformer getTransformer() {
+        return transformer;
+    }
+
+    /**
+     * Return the invokers of the methods annotated with RestAction by action name or null if no
+     * annotated method exists.
+     *
+     * @return The actions or null
+     */
+    public Map<String, ActionInvoker> getActions() {
+        return actions;
+    }
+
+    /**
+     * Return the invoker for the action. If the class defines annotated actions only these are
+     * used. Otherwise the action is mapped to a method onAction(JsonResult, CallContext). The
+     * mapping is cached, also for unknown actions.
+     *
+     * @param actionName The name of the action
+     * @return The invoker or null if not found
+     */
+    public ActionInvoker getAction(String actionName) {
+        if (actionName == null) return null;
+        if (actions != null) return actions.get(actionName);
+        ActionInvoker invoker = onActions.get(actionName);
+        if (invoker != null) return invoker == NOT_FOUND ? null : invoker;
+        String methodName = "on" + MPojo.toFunctionName(actionName, true, null);
+        invoker = onMethods.get(methodName);
+        // do not let unknown names flood the cache
+        if (invoker != null || onActions.size() < MAX_CACHED_ACTIONS)
+            onActions.put(actionName, invoker == null ? NOT_FOUND : invoker);
+        return invoker;
+    }
+
+    /**
+     * Return the priority class of a request. The priority of the action is used if declared,
+     * otherwise the priority of the node.
+     *
+     * @param actionName The name of the action or null
+     * @return The priority, never DEFAULT
+     */
+    public RestPriority getPriority(String actionName) {
+        if (actionName != null) {
+            ActionInvoker invoker = getAction(actionName);
+            if (invoker != null && invoker.getPriority() != RestPriority.DEFAULT)
+                return invoker.getPriority();
+        }
+        return priority;
+    }
+
+    public boolean isLegacyLookup() {
+        return legacyLookup;
+    }
+}
@@ -15,7 +15,9 @@
  */
 package de.mhus.rest.core.node;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -25,24 +27,32 @@ import de.mhus.lib.errors.NotFoundException;
 import de.mhus.lib.errors.NotSupportedException;
 import de.mhus.rest.core.CallContext;
 import de.mhus.rest.core.result.JsonResult;
+import de.mhus.rest.core.result.JsonStreamResult;
 import de.mhus.rest.core.transform.ObjectTransformer;
+import de.mhus.rest.core.transform.StreamTransformer;
 
 public abstract class ObjectListNode<T, L> extends JsonListNode<T> {
 
     protected ObjectTransformer transformer;
+    private final boolean streamingRead;
 
     public ObjectListNode() {
         loadTransformer();
+        // stream lists only if the subclass does not create the result by itself
+        streamingRead =
+                NodeDescriptor.findDeclaringClass(
+                                getClass(), "doRead", JsonResult.class, CallContext.class)
+                        == ObjectListNode.class;
     }
 
     protected void loadTransformer() {
-        transformer = ObjectTransformer.create(this.getClass());
+        transformer = getDescriptor().getTransformer();
     }
 
     @Override
     public void doRead(JsonResult result, CallContext callContext) throws Exception {
 
-        T obj = getObjectFromContext(callContext, getManagedClassName());
+        T obj = getObjectFromContext(callContext);
         if (obj != null) {
             doPrepareForOutput(obj, callContext);
             JsonNode jItem = transformer.toJsonNode(obj);
@@ -51,15 +61,69 @@ public abstract class ObjectListNode<T, L> extends JsonListNode<T> {
         } else {
             ArrayNode jList = result.createArrayNode();
 
-            for (L item : getObjectList(callContext)) {
-                doPrepareForOutputList(item, callContext);
-                JsonNode jItem = transformer.toJsonNode(item);
-                if (jItem != null) jList.add(jItem);
+            try (Stream<L> stream = getObjectStream(callContext)) {
+                if (stream != null) {
+                    Iterator<L> iter = stream.iterator();
+                    while (iter.hasNext()) {
+                        L item = iter.next();
+                        doPrepareForOutputList(item, callContext);
+                        JsonNode jItem = transformer.toJsonNode(item);
+                        if (jItem != null) jList.add(jItem);
+                    }
+                }
             }
         }
     }
 
-    protected abstract List<L> getObjectList(CallContext callContext) throws MException;
+    @Override
+    protected JsonStreamResult doReadStream(CallContext callContext) throws Exception {
+        if (!streamingRead || getObjectFromContext(callContext) != null) return null;
+        Stream<L> stream = getObjectStream(callContext);
+        if (stream == null) return null;
+        Iterator<L> iter = stream.iterator();
+        StreamTransformer streamTransformer =
+                transformer instanceof StreamTransformer ? (StreamTransformer) transformer : null;
+        return JsonStreamResult.array(
+                        (generator, context) -> {
+                            while (iter.hasNext()) {
+                                L item = iter.next();
+                                doPrepareForOutputList(item, context);
+                                if (streamTransformer != null) {
+                                    streamTransformer.write(item, generator);
+                                } else {
+                                    JsonNode jItem = transformer.toJsonNode(item);
+                                    if (jItem != null) generator.writeTree(jItem);
+                                }
+                            }
+                        })
+                .onClose(stream);
+    }
+
+    /**
+     * Return the objects of the list. Overwrite this method or getObjectStream().
+     *
+     * @param callContext The context of the call
+     * @return The list of objects
+     * @throws MException
+     */
+    protected List<L> getObjectList(CallContext callContext) throws MException {
+        throw new NotSupportedException();
+    }
+
+    /**
+     * Return the objects of the list as lazy stream. The stream is consumed while the response is
+     * written and closed after writing, also if the client disconnects. Use onClose() of the stream
+     * to release resources like database cursors. Iterators or spliterators can be wrapped with
+     * StreamSupport. By default the stream of getObjectList() is returned.
+     *
+     * @param callContext The context of the call
+     * @return The objects or null
+     * @throws MException
+     */
+    protected Stream<L> getObjectStream(CallContext callContext) throws MException {
+        List<L> list = getObjectList(callContext);
+        return list == null ? null : list.stream();
+    }
 
     protected void doPrepareForOutputList(L obj, CallContext context) throws MException {}
 
@@ -78,7 +142,7 @@ public abstract class ObjectListNode<T, L> extends JsonListNode<T> {
     @Override
     protected void doUpdate(JsonResult result, CallContext callContext) throws Exception {
 
-        T obj = getObjectFromContext(callContext, getManagedClassName());
+        T obj = getObjectFromContext(callContext);
         if (obj == null) throw new NotFoundException();
 
         doUpdateObj(obj, callContext);
@@ -100,7 +164,7 @@ public abstract class ObjectListNode<T, L> extends JsonListNode<T> {
 
     @Override
     protected void doDelete(JsonResult result, CallContext callContext) throws Exception {
-        T obj = getObjectFromContext(callContext, getManagedClassName());
+        T obj = getObjectFromContext(callContext);
         if (obj == null) throw new NotFoundException();
 
         doDeleteObj(obj, callContext);
@@ -18,6 +18,7 @@ package de.mhus.rest.core.node;
 import java.util.List;
 
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.api.Node;
 
 public abstract class SingleNode<T> extends AbstractNode {
@@ -34,16 +35,30 @@ public abstract class SingleNode<T> extends AbstractNode {
 
         if (obj == null) return null;
 
-        callContext.put(getManagedClassName() + OBJECT, obj);
+        callContext.put(getObjectKey(), obj);
 
         if (parts.size() < 1) return this;
 
         return callContext.lookup(parts, getClass());
     }
 
+    @Override
+    protected Node doLookup(PathCursor parts, CallContext callContext) throws Exception {
+
+        T obj = getObject(callContext);
+
+        if (obj == null) return null;
+
+        callContext.put(getObjectKey(), obj);
+
+        if (!parts.hasNext()) return this;
+
+        return callContext.lookup(parts, getClass());
+    }
+
     @SuppressWarnings("unchecked")
     protected T getObjectFromContext(CallContext callContext) {
-        return (T) callContext.get(getManagedClassName() + OBJECT);
+        return (T) callContext.get(getObjectKey());
     }
 
     protected abstract T getObject(CallContext context) throws Exception;
@@ -32,13 +32,13 @@ public abstract class SingleObjectNode<T> extends JsonSingleNode<T> {
     }
 
     protected void loadTransformer() {
-        transformer = ObjectTransformer.create(this.getClass());
+        transformer = getDescriptor().getTransformer();
     }
 
     @Override
     public void doRead(JsonResult result, CallContext callContext) throws Exception {
 
-        T obj = getObjectFromContext(callContext, getManagedClassName());
+        T obj = getObjectFromContext(callContext);
         if (obj == null) throw new NotFoundException();
 
         doPrepareForOutput(obj, callContext, false);
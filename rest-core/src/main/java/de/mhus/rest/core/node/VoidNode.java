@@ -18,6 +18,7 @@ package de.mhus.rest.core.node;
 import java.util.List;
 
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.api.Node;
 import de.mhus.rest.core.result.JsonResult;
 
@@ -35,6 +36,13 @@ public abstract class VoidNode extends SingleObjectNode<Void> {
         return callContext.lookup(parts, getClass());
     }
 
+    @Override
+    protected Node doLookup(PathCursor parts, CallContext callContext) throws Exception {
+
+        if (!parts.hasNext()) return this;
+        return callContext.lookup(parts, getClass());
+    }
+
     @Override
     protected final Void getObject(CallContext context) throws Exception {
         return null;
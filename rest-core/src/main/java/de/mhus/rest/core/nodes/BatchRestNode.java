@@ -0,0 +1,341 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.nodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+
+import de.mhus.lib.annotations.service.ServiceComponent;
+import de.mhus.lib.basics.RC;
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.io.http.MHttp;
+import de.mhus.lib.errors.AccessDeniedException;
+import de.mhus.lib.errors.MException;
+import de.mhus.lib.errors.MRuntimeException;
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
+import de.mhus.rest.core.RestBulkhead;
+import de.mhus.rest.core.annotation.RestNode;
+import de.mhus.rest.core.api.Node;
+import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.api.RestException;
+import de.mhus.rest.core.api.RestNodeService;
+import de.mhus.rest.core.api.RestPriority;
+import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.impl.CachedRestRequest;
+import de.mhus.rest.core.node.VoidNode;
+import de.mhus.rest.core.result.JsonGeneratorResult;
+import de.mhus.rest.core.result.JsonStreamResult;
+import de.mhus.rest.core.util.RestAsync;
+import de.mhus.rest.core.util.RestIdGenerator;
+import de.mhus.rest.core.util.RestUtil;
+
+/**
+ * Executes a list of rest calls in one http request. The calls are posted as json array or as
+ * object with the array in 'requests'. Every call is an object with 'method' (default GET),
+ * 'path', 'parameters' (object) and 'body' (json) and an optional 'id'. The calls are dispatched
+ * like single requests, with lookup, permission and security checks, but the authenticated subject
+ * of the batch request is reused.
+ *
+ * <p>If 'parallel' is true the calls are independent and executed in parallel. The results are
+ * streamed in the order of completion as array of objects with 'id', 'status' and 'result' or
+ * 'error'.
+ */
+@ServiceComponent(service = RestNodeService.class)
+@RestNode(name = "batch", priority = RestPriority.BULK)
+public class BatchRestNode extends VoidNode {
+
+    public static final CfgInt CFG_MAX_REQUESTS =
+            new CfgInt(RestApi.class, "batchMaxRequests", 100);
+    public static final CfgInt CFG_THREADS = new CfgInt(RestApi.class, "batchThreads", 8);
+
+    private static volatile ExecutorService executor;
+
+    @Override
+    public RestResult doCreate(CallContext callContext) throws Exception {
+        JsonNode body = callContext.getBody().getJson();
+        boolean parallel = false;
+        JsonNode list = body;
+        if (body.isObject()) {
+            parallel = body.path("parallel").asBoolean(false);
+            list = body.path("requests");
+        }
+        if (!list.isArray())
+            throw new RestException(
+                    "batch requests missing", HttpServletResponse.SC_BAD_REQUEST, null);
+        int max = CFG_MAX_REQUESTS.value();
+        if (max > 0 && list.size() > max)
+            throw new RestException(
+                    "too many batch requests", HttpServletResponse.SC_BAD_REQUEST, null);
+
+        ArrayList<Entry> entries = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) entries.add(new Entry(i, list.get(i), callContext));
+
+        if (!parallel || entries.size() < 2)
+            return JsonStreamResult.array(
+                    (generator, context) -> {
+                        for (Entry entry : entries) {
+                            entry.execute();
+                            entry.write(generator);
+                        }
+                    });
+
+        Subject subject = SecurityUtils.getSubject();
+        return JsonStreamResult.array(
+                (generator, context) -> {
+                    CompletionService<Entry> service =
+                            new ExecutorCompletionService<>(getExecutor());
+                    List<Future<Entry>> futures = new ArrayList<>(entries.size());
+                    try {
+                        for (Entry entry : entries)
+                            futures.add(
+                                    service.submit(
+                                            subject.associateWith(
+                                                    (Callable<Entry>)
+                                                            () -> {
+                                                                entry.execute();
+                                                                return entry;
+                                                            })));
+                        for (int i = 0; i < entries.size(); i++)
+                            service.take().get().write(generator);
+                    } finally {
+                        // client is gone or writing failed, close the results not written
+                        for (Future<Entry> future : futures) future.cancel(true);
+                        for (Entry entry : entries) entry.discard();
+                    }
+                });
+    }
+
+    /* The executor is created once, later calls read it without lock. */
+    private static ExecutorService getExecutor() {
+        ExecutorService virtual = RestAsync.getHandlerExecutor();
+        if (virtual != null) return virtual;
+        ExecutorService current = executor;
+        if (current != null) return current;
+        synchronized (BatchRestNode.class) {
+            if (executor == null) {
+                AtomicInteger cnt = new AtomicInteger();
+                ThreadFactory factory =
+                        r -> {
+                            Thread thread = new Thread(r, "rest-batch-" + cnt.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        };
+                executor =
+                        Executors.newFixedThreadPool(Math.max(1, CFG_THREADS.value()), factory);
+            }
+            return executor;
+        }
+    }
+
+    /** Stop the batch threads, called if the rest api is deactivated. */
+    public static synchronized void shutdown() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    private class Entry {
+
+        private final JsonNode id;
+        private final String path;
+        private final CallContext callContext;
+        private int status;
+        private RestResult result;
+        private String error;
+        private boolean discarded;
+
+        private Entry(int index, JsonNode definition, CallContext parent) {
+            JsonNode i = definition.get("id");
+            id = i == null ? IntNode.valueOf(index) : i;
+            path = definition.path("path").asText("");
+            String method = definition.path("method").asText(MHttp.METHOD_GET).toUpperCase();
+
+            HashMap<String, String[]> parameters = new HashMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = definition.path("parameters").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                parameters.put(field.getKey(), new String[] {field.getValue().asText()});
+            }
+            HashMap<String, String[]> headers = new HashMap<>();
+            JsonNode body = definition.get("body");
+            byte[] load;
+            if (body == null) {
+                load = null;
+            } else {
+                load = body.toString().getBytes(StandardCharsets.UTF_8);
+                headers.put("Content-Type", new String[] {"application/json"});
+                headers.put("Content-Length", new String[] {String.valueOf(load.length)});
+            }
+
+            callContext =
+                    new CallContext(
+                            null,
+                            null,
+                            new CachedRestRequest(
+                                    parameters,
+                                    headers,
+                                    () -> load == null ? null : new ByteArrayInputStream(load)),
+                            MHttp.toMethod(method),
+                            false);
+            callContext.setRestApi(parent.getRestApi());
+            callContext.setRequestId(RestIdGenerator.instance().next());
+        }
+
+        private void execute() {
+            RestApi restApi = callContext.getRestApi();
+            try {
+                if (!restApi.checkSecurityPrepared(callContext)) {
+                    failed(HttpServletResponse.SC_FORBIDDEN, "request blocked by security");
+                    return;
+                }
+                Node item = restApi.lookup(new PathCursor(path), null, callContext);
+                if (item == null) {
+                    failed(HttpServletResponse.SC_NOT_FOUND, "Resource Not Found");
+                    return;
+                }
+                if (item instanceof BatchRestNode) {
+                    failed(HttpServletResponse.SC_BAD_REQUEST, "nested batch not supported");
+                    return;
+                }
+                log().d("batch request", callContext.getRequestId(), callContext.getMethod(), path);
+                RestBulkhead bulkhead = restApi.getBulkhead(item);
+                if (bulkhead != null && !bulkhead.acquire()) {
+                    failed(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+                    return;
+                }
+                RestResult res;
+                try {
+                    res = RestUtil.doRequest(restApi, item, callContext);
+                } finally {
+                    if (bulkhead != null) bulkhead.release();
+                }
+                if (res == null) {
+                    failed(HttpServletResponse.SC_NOT_IMPLEMENTED, "unknown request type");
+                    return;
+                }
+                if (!restApi.checkSecurityResult(callContext, res)) {
+                    close(res);
+                    failed(HttpServletResponse.SC_FORBIDDEN, "result blocked by security");
+                    return;
+                }
+                int rc = res.getReturnCode();
+                status = rc == 0 ? RC.OK : RC.normalize(rc < 0 ? -rc : rc);
+                synchronized (this) {
+                    if (!discarded) {
+                        result = res;
+                        return;
+                    }
+                }
+                // the batch was aborted while the request was executed
+                close(res);
+            } catch (AccessDeniedException e) {
+                log().d(e);
+                failed(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+            } catch (MException e) {
+                log().d(e);
+                failed(e.getReturnCode(), e.getMessage());
+            } catch (MRuntimeException e) {
+                log().d(e);
+                failed(e.getReturnCode(), e.getMessage());
+            } catch (Throwable t) {
+                log().d(t);
+                failed(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, t.getMessage());
+            } finally {
+                callContext.release();
+            }
+        }
+
+        private void failed(int status, String error) {
+            this.status = RC.normalize(status);
+            this.error = error;
+        }
+
+        private void write(JsonGenerator generator) throws Exception {
+            try {
+                generator.writeStartObject();
+                generator.writeFieldName("id");
+                generator.writeTree(id);
+                generator.writeStringField("_request", String.valueOf(callContext.getRequestId()));
+                generator.writeNumberField("status", status);
+                if (error != null) generator.writeStringField("error", error);
+                if (result instanceof JsonGeneratorResult) {
+                    generator.writeFieldName("result");
+                    ((JsonGeneratorResult) result).write(callContext, generator);
+                } else if (result != null) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    result.write(callContext, out);
+                    String contentType = result.getContentType(callContext);
+                    generator.writeStringField("contentType", contentType);
+                    if (contentType != null && contentType.startsWith("text/"))
+                        generator.writeStringField(
+                                "result", new String(out.toByteArray(), StandardCharsets.UTF_8));
+                    else generator.writeBinaryField("result", out.toByteArray());
+                }
+                generator.writeEndObject();
+                generator.flush();
+            } finally {
+                discard();
+            }
+        }
+
+        /*
+         * Close the result, also if it's not written. A result created later is closed
+         * immediately.
+         */
+        private void discard() {
+            RestResult res;
+            synchronized (this) {
+                discarded = true;
+                res = result;
+                result = null;
+            }
+            close(res);
+        }
+
+        private void close(RestResult res) {
+            if (res instanceof AutoCloseable)
+                try {
+                    ((AutoCloseable) res).close();
+                } catch (Throwable t) {
+                    log().d("close result failed", t);
+                }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import de.mhus.lib.annotations.service.ServiceComponent;
 import de.mhus.lib.core.MCast;
 import de.mhus.lib.core.MThread;
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.PathCursor;
 import de.mhus.rest.core.PublicRestAuthenticator;
 import de.mhus.rest.core.api.Node;
 import de.mhus.rest.core.api.RestNodeService;
@@ -40,6 +41,12 @@ public class PublicRestNode extends SingleObjectNode<Object> {
         return super.lookup(parts, callContext);
     }
 
+    @Override
+    protected Node doLookup(PathCursor parts, CallContext callContext) throws Exception {
+        callContext.setAuthorisation(new PublicRestAuthenticator());
+        return super.doLookup(parts, callContext);
+    }
+
     @Override
     public String[] getParentNodeCanonicalClassNames() {
         return new String[] {ROOT_PARENT};
@@ -16,12 +16,14 @@
 package de.mhus.rest.core.result;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 
 import de.mhus.lib.core.MFile;
 import de.mhus.rest.core.CallContext;
 import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.util.BufferPool;
 
 public class BinaryResult implements RestResult {
 
@@ -58,6 +60,26 @@ public class BinaryResult implements RestResult {
         }
     }
 
+    @Override
+    public void write(CallContext context, OutputStream out) throws Exception {
+        if (is != null) {
+            byte[] buffer = BufferPool.acquire();
+            try {
+                while (true) {
+                    int len = is.read(buffer);
+                    if (len < 0) break;
+                    out.write(buffer, 0, len);
+                }
+            } finally {
+                BufferPool.release(buffer);
+                is.close();
+                is = null;
+            }
+        } else if (reader != null) {
+            RestResult.super.write(context, out);
+        }
+    }
+
     protected void onClose() {}
 
     @Override
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.result;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import javax.servlet.http.HttpServletResponse;
+
+import de.mhus.lib.core.MString;
+import de.mhus.lib.errors.NotSupportedException;
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.util.BufferPool;
+
+/**
+ * Result streaming a file or file channel with pooled buffers. The servlet api offers no channel
+ * to write into, a zero copy transfer is not possible. Supports single byte ranges (Range and
+ * If-Range headers) for partial and resumable downloads and sets the Content-Length.
+ */
+public class FileResult implements RestResult, AutoCloseable {
+
+    public static final String CONTENT_TYPE_BINARY = "application/octet-stream";
+
+    private final String contentType;
+    private Path path;
+    private FileChannel channel;
+    private long lastModified = -1;
+    private int returnCode = 0;
+
+    public FileResult(File file, String contentType) {
+        this(file.toPath(), contentType);
+    }
+
+    public FileResult(Path path, String contentType) {
+        this.path = path;
+        this.contentType =
+                MString.isEmpty(contentType) ? CONTENT_TYPE_BINARY : contentType;
+        try {
+            lastModified = Files.getLastModifiedTime(path).toMillis();
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Stream the channel from the current position to the end. The channel is closed after
+     * writing.
+     *
+     * @param channel The channel
+     * @param contentType The content type
+     */
+    public FileResult(FileChannel channel, String contentType) {
+        this.channel = channel;
+        this.contentType =
+                MString.isEmpty(contentType) ? CONTENT_TYPE_BINARY : contentType;
+    }
+
+    @Override
+    public void write(CallContext context, PrintWriter writer) throws Exception {
+        throw new NotSupportedException("binary result can't be written as text");
+    }
+
+    @Override
+    public void write(CallContext context, OutputStream out) throws Exception {
+        try {
+            FileChannel source = open();
+            long[] section = prepare(context, source);
+            if (section == null) return;
+            byte[] buffer = BufferPool.acquire();
+            try {
+                ByteBuffer bb = ByteBuffer.wrap(buffer);
+                long pos = section[0];
+                long end = section[1];
+                while (pos < end) {
+                    bb.clear();
+                    if (end - pos < buffer.length) bb.limit((int) (end - pos));
+                    int n = source.read(bb, pos);
+                    if (n <= 0) break; // file was truncated
+                    out.write(buffer, 0, n);
+                    pos += n;
+                }
+            } finally {
+                BufferPool.release(buffer);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /*
+     * Set the headers of the response and return the section {start, end} of the channel to
+     * write or null if nothing has to be written.
+     */
+    private long[] prepare(CallContext context, FileChannel source) throws Exception {
+        long start = path == null ? source.position() : 0;
+        long length = source.size() - start;
+        long[] range = getRange(context, length);
+        if (range == null) {
+            // not satisfiable
+            setStatus(context, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            setHeader(context, "Content-Range", "bytes */" + length);
+            setContentLength(context, 0);
+            return null;
+        }
+        setHeader(context, "Accept-Ranges", "bytes");
+        if (lastModified > 0) setDateHeader(context, "Last-Modified", lastModified);
+        String eTag = getETag(length);
+        if (eTag != null) setHeader(context, "ETag", eTag);
+        long from = range[0];
+        long count = range[1] - range[0] + 1;
+        if (from > 0 || count < length) {
+            setStatus(context, HttpServletResponse.SC_PARTIAL_CONTENT);
+            setHeader(context, "Content-Range", "bytes " + from + "-" + range[1] + "/" + length);
+        }
+        setContentLength(context, count);
+        return new long[] {start + from, start + from + count};
+    }
+
+    private FileChannel open() throws Exception {
+        if (channel == null) channel = FileChannel.open(path, StandardOpenOption.READ);
+        return channel;
+    }
+
+    /*
+     * Return the range {first, last} or null if not satisfiable. Multiple ranges are not
+     * supported, the whole content is returned in this case.
+     */
+    private long[] getRange(CallContext context, long length) {
+        long[] all = new long[] {0, length - 1};
+        String header = context == null ? null : context.getRequestHeader("Range");
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0)
+            return all;
+        if (!matchesIfRange(context.getRequestHeader("If-Range"), length)) return all;
+        String spec = header.substring(6).trim();
+        int pos = spec.indexOf('-');
+        if (pos < 0) return all;
+        try {
+            String first = spec.substring(0, pos).trim();
+            String last = spec.substring(pos + 1).trim();
+            long from;
+            long to;
+            if (first.isEmpty()) {
+                // suffix range
+                if (last.isEmpty()) return all;
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                from = Math.max(0, length - suffix);
+                to = length - 1;
+            } else {
+                from = Long.parseLong(first);
+                to = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (to < from) return all; // invalid, ignore
+            }
+            if (from >= length) return null;
+            return new long[] {from, to};
+        } catch (NumberFormatException e) {
+            return all;
+        }
+    }
+
+    private boolean matchesIfRange(String ifRange, long length) {
+        if (ifRange == null) return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            String eTag = getETag(length);
+            return eTag != null && eTag.equals(ifRange);
+        }
+        if (lastModified <= 0) return false;
+        try {
+            long date =
+                    ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME)
+                            .toInstant()
+                            .toEpochMilli();
+            return lastModified / 1000 <= date / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the strong entity tag of the file or null if not known. The compression weakens the
+     * tag if the content is compressed.
+     *
+     * @param length The length of the content
+     * @return The tag or null
+     */
+    protected String getETag(long length) {
+        if (lastModified <= 0) return null;
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    private void setStatus(CallContext context, int status) {
+        if (context != null && context.getOriginalResponse() instanceof HttpServletResponse)
+            context.setResponseStatus(status);
+    }
+
+    private void setHeader(CallContext context, String name, String value) {
+        if (context != null && context.getOriginalResponse() instanceof HttpServletResponse)
+            context.setResponseHeader(name, value);
+    }
+
+    private void setDateHeader(CallContext context, String name, long value) {
+        if (context != null && context.getOriginalResponse() instanceof HttpServletResponse)
+            context.setResponseHeader(name, new Date(value));
+    }
+
+    private void setContentLength(CallContext context, long length) {
+        if (context != null && context.getOriginalResponse() instanceof HttpServletResponse)
+            ((HttpServletResponse) context.getOriginalResponse()).setContentLengthLong(length);
+    }
+
+    @Override
+    public void close() {
+        FileChannel c = channel;
+        channel = null;
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (Exception e) {
+        }
+    }
+
+    @Override
+    public String getContentType(CallContext context) {
+        return contentType;
+    }
+
+    @Override
+    public int getReturnCode() {
+        return returnCode;
+    }
+
+    public void setReturnCode(int returnCode) {
+        this.returnCode = returnCode;
+    }
+}
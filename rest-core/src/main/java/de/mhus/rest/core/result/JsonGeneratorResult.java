@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.result;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.api.RestResult;
+
+/**
+ * A result able to write its content as a single json value into a JsonGenerator. The generator is
+ * owned by the caller and must not be closed.
+ */
+public interface JsonGeneratorResult extends RestResult {
+
+    void write(CallContext context, JsonGenerator generator) throws Exception;
+}
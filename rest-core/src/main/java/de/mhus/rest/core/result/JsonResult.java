@@ -15,12 +15,22 @@
  */
 package de.mhus.rest.core.result;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.shiro.SecurityUtils;
 import org.apache.shiro.subject.Subject;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -30,16 +40,17 @@ import de.mhus.lib.core.logging.ITracer;
 import de.mhus.lib.core.logging.MLogUtil;
 import de.mhus.lib.core.logging.TraceJsonMap;
 import de.mhus.rest.core.CallContext;
-import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.util.RestIdGenerator;
 import io.opentracing.propagation.Format;
 
-public class JsonResult implements RestResult {
+public class JsonResult implements JsonGeneratorResult {
 
     // private static Log log = Log.getLog(JsonResult.class);
-    private static int nextId = 0;
     private JsonNode json;
+    private byte[] payload;
     private long id;
     private static ObjectMapper m = new ObjectMapper();
+    private static final byte[] COMMA = new byte[] {','};
     private int returnCode = 0;
 
     public JsonResult() {
@@ -48,32 +59,207 @@ public class JsonResult implements RestResult {
 
     @Override
     public void write(CallContext context, PrintWriter writer) throws Exception {
+        try (JsonGenerator generator = m.getFactory().createGenerator(writer)) {
+            write(context, generator);
+        }
+    }
 
+    @Override
+    public void write(CallContext context, OutputStream out) throws Exception {
+        try (JsonGenerator generator = createGenerator(out)) {
+            write(context, generator);
+        }
+    }
+
+    @Override
+    public void write(CallContext context, JsonGenerator generator) throws Exception {
         // log.d("result",id,json);
+        if (payload != null) {
+            ObjectNode trace = createTrace(context);
+            // trace fields could collide with payload fields, use the tree
+            if (trace == null && generator instanceof JsonGeneratorImpl) {
+                writePayload(generator, context);
+                return;
+            }
+        }
+        if (getJson() == null) {
+            createObjectNode();
+        }
+        if (!json.isObject()) {
+            m.writeTree(generator, json);
+            return;
+        }
+        // the envelope is not added to the json, the payload stays unchanged. Payload fields
+        // with the name of an envelope field are skipped, the envelope wins.
+        ObjectNode trace = createTrace(context);
+        generator.writeStartObject();
+        writeEnvelope(generator, id, context, trace);
+        Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (isEnvelopeField(field.getKey(), trace)) continue;
+            generator.writeFieldName(field.getKey());
+            m.writeTree(generator, field.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    /*
+     * Write the serialized payload into a json text generator, the envelope is written new. The
+     * payload is not parsed, the fields of an object are spliced after the envelope.
+     */
+    private void writePayload(JsonGenerator generator, CallContext context) throws IOException {
+        if (payload.length < 2 || payload[0] != '{') {
+            writeRaw(generator, payload, 0, payload.length);
+            return;
+        }
+        generator.writeStartObject();
+        writeEnvelope(generator, id, context, null);
+        // the payload is compact, the fields are between the braces
+        int len = payload.length - 2;
+        if (len > 0) {
+            writeRaw(generator, COMMA, 0, 1);
+            writeRaw(generator, payload, 1, len);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeRaw(JsonGenerator generator, byte[] b, int off, int len)
+            throws IOException {
+        Object target = generator.getOutputTarget();
+        if (generator instanceof UTF8JsonGenerator && target instanceof OutputStream) {
+            // the payload is UTF-8 already, write it behind the generator. Do not flush the
+            // stream, it would flush the compression.
+            boolean flushStream = generator.isEnabled(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            generator.flush();
+            if (flushStream) generator.enable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            ((OutputStream) target).write(b, off, len);
+        } else {
+            generator.writeRaw(new String(b, off, len, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Return the json without the envelope fields serialized as UTF-8. Unlike the written response
+     * the payload is the same for the same data, it's used for entity tags and the response cache.
+     * The payload is kept and written by write() instead of the json, the json must not be changed
+     * after this call.
+     *
+     * @param maxSize The maximum size in bytes
+     * @return The payload or null if larger than the maximum size
+     * @throws IOException
+     */
+    public byte[] toPayload(int maxSize) throws IOException {
+        if (payload != null) return payload.length <= maxSize ? payload : null;
         if (json == null) {
             createObjectNode();
         }
-        if (json.isObject()) {
-            ((ObjectNode) json).put("_timestamp", System.currentTimeMillis());
-            ((ObjectNode) json).put("_sequence", id);
-
-            Subject subject = SecurityUtils.getSubject();
-            if (subject.isAuthenticated())
-                ((ObjectNode) json).put("_user", String.valueOf(subject.getPrincipal()));
-            if (context != null && context.isReturnTrace() && ITracer.get().current() != null)
-                try {
-                    ITracer.get()
-                            .tracer()
-                            .inject(
-                                    ITracer.get().current().context(),
-                                    Format.Builtin.TEXT_MAP,
-                                    new TraceJsonMap((ObjectNode) json, "_"));
-                } catch (Throwable t2) {
-                    MLogUtil.log().d("tracer failed", getClass(), t2);
+        LimitedBuffer buffer = new LimitedBuffer(maxSize);
+        try (JsonGenerator generator = createGenerator(buffer)) {
+            if (json.isObject()) {
+                // the same fields as write() returns
+                generator.writeStartObject();
+                Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    if (isEnvelopeField(field.getKey(), null)) continue;
+                    generator.writeFieldName(field.getKey());
+                    m.writeTree(generator, field.getValue());
                 }
+                generator.writeEndObject();
+            } else m.writeTree(generator, json);
+        } catch (LimitExceededException e) {
+            return null;
         }
+        payload = buffer.toByteArray();
+        return payload;
+    }
+
+    /*
+     * Return the trace fields to return or null.
+     */
+    private static ObjectNode createTrace(CallContext context) {
+        if (context == null || !context.isReturnTrace() || ITracer.get().current() == null)
+            return null;
+        ObjectNode trace = m.createObjectNode();
+        try {
+            ITracer.get()
+                    .tracer()
+                    .inject(
+                            ITracer.get().current().context(),
+                            Format.Builtin.TEXT_MAP,
+                            new TraceJsonMap(trace, "_"));
+        } catch (Throwable t2) {
+            MLogUtil.log().d("tracer failed", JsonResult.class, t2);
+        }
+        return trace;
+    }
 
-        m.writeValue(writer, json);
+    private static boolean isEnvelopeField(String name, ObjectNode trace) {
+        switch (name) {
+            case "_timestamp":
+            case "_sequence":
+            case "_request":
+            case "_user":
+                return true;
+            default:
+                return trace != null && trace.has(name);
+        }
+    }
+
+    /**
+     * Write the envelope fields into the current object of the generator. The fields are the same
+     * as write() adds to an object result. Write the envelope before the content, the names of
+     * the envelope fields (_timestamp, _sequence, _request, _user and trace fields) are reserved.
+     *
+     * @param generator The generator positioned inside an object
+     * @param sequence The sequence of the result
+     * @param context The context of the call or null
+     * @throws IOException
+     */
+    public static void writeEnvelope(JsonGenerator generator, long sequence, CallContext context)
+            throws IOException {
+        writeEnvelope(generator, sequence, context, createTrace(context));
+    }
+
+    private static void writeEnvelope(
+            JsonGenerator generator, long sequence, CallContext context, ObjectNode trace)
+            throws IOException {
+        generator.writeNumberField("_timestamp", System.currentTimeMillis());
+        generator.writeNumberField("_sequence", sequence);
+        // ids are larger than the safe integers of javascript, the request id is a string
+        if (context != null && context.getRequestId() != 0)
+            generator.writeStringField("_request", String.valueOf(context.getRequestId()));
+
+        Subject subject = SecurityUtils.getSubject();
+        if (subject.isAuthenticated())
+            generator.writeStringField("_user", String.valueOf(subject.getPrincipal()));
+        if (trace != null) {
+            Iterator<Map.Entry<String, JsonNode>> fields = trace.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                generator.writeFieldName(field.getKey());
+                m.writeTree(generator, field.getValue());
+            }
+        }
+    }
+
+    static ObjectMapper getMapper() {
+        return m;
+    }
+
+    /**
+     * Create a UTF-8 generator writing into the stream. The stream is not closed by the generator.
+     *
+     * @param out The stream
+     * @return The generator
+     * @throws IOException
+     */
+    static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = m.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
     }
 
     @Override
@@ -81,20 +267,38 @@ public class JsonResult implements RestResult {
         return "application/json";
     }
 
-    private static synchronized long newId() {
-        return nextId++;
+    /**
+     * Return a new unique id for a result. See RestIdGenerator.
+     *
+     * @return The id
+     */
+    static long newId() {
+        return RestIdGenerator.instance().next();
     }
 
+    /**
+     * Return the json. A result created from a payload parses the payload with the first call.
+     *
+     * @return The json or null
+     */
     public JsonNode getJson() {
+        if (json == null && payload != null)
+            try {
+                json = m.readTree(payload);
+            } catch (IOException e) {
+                throw new IllegalStateException("invalid payload", e);
+            }
         return json;
     }
 
     public void setJson(JsonNode json) {
         this.json = json;
+        payload = null;
     }
 
     public ObjectNode createObjectNode() {
         json = m.createObjectNode();
+        payload = null;
         return (ObjectNode) json;
     }
 
@@ -110,8 +314,53 @@ public class JsonResult implements RestResult {
         return w.toString();
     }
 
+    /**
+     * Create a result from a payload created by toPayload(). The envelope is written new, the
+     * payload is written as is without parsing it.
+     *
+     * @param payload The payload
+     * @return The result
+     */
+    public static JsonResult fromPayload(byte[] payload) {
+        JsonResult result = new JsonResult();
+        result.payload = payload;
+        return result;
+    }
+
+    private static class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class LimitedBuffer extends OutputStream {
+
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final int maxSize;
+
+        private LimitedBuffer(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffer.size() + 1 > maxSize) throw new LimitExceededException();
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer.size() + len > maxSize) throw new LimitExceededException();
+            buffer.write(b, off, len);
+        }
+
+        private byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+
     public ArrayNode createArrayNode() {
         json = m.createArrayNode();
+        payload = null;
         return (ArrayNode) json;
     }
 
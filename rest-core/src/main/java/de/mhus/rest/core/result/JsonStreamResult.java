@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.result;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.LinkedList;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.CallContext;
+
+/**
+ * Json result writing the content directly into a JsonGenerator while the response is sent. No
+ * tree of the content is created. In object mode the content writes the fields of the root object
+ * after the envelope fields (_timestamp, _sequence, _request, _user and trace) like JsonResult
+ * does, the content must not use these names. In array mode the content writes the elements of
+ * the root array.
+ *
+ * <p>Resources used by the content (e.g. a database cursor) can be registered with onClose(). They
+ * are closed after the result is written, if writing fails or the client disconnects.
+ */
+public class JsonStreamResult implements JsonGeneratorResult, AutoCloseable {
+
+    private static final JsonFactory FACTORY =
+            new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final Content content;
+    private final boolean array;
+    private final long id;
+    private int returnCode = 0;
+    private LinkedList<AutoCloseable> resources;
+
+    protected JsonStreamResult(Content content, boolean array) {
+        this.content = content;
+        this.array = array;
+        id = JsonResult.newId();
+    }
+
+    /**
+     * Create a result with an object as root.
+     *
+     * @param content Writes the fields of the root object
+     * @return The result
+     */
+    public static JsonStreamResult object(Content content) {
+        return new JsonStreamResult(content, false);
+    }
+
+    /**
+     * Create a result with an array as root.
+     *
+     * @param content Writes the elements of the root array
+     * @return The result
+     */
+    public static JsonStreamResult array(Content content) {
+        return new JsonStreamResult(content, true);
+    }
+
+    /**
+     * Register a resource to close after the result is written.
+     *
+     * @param resource The resource
+     * @return this
+     */
+    public synchronized JsonStreamResult onClose(AutoCloseable resource) {
+        if (resources == null) resources = new LinkedList<>();
+        resources.add(resource);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        LinkedList<AutoCloseable> list;
+        synchronized (this) {
+            list = resources;
+            resources = null;
+        }
+        if (list == null) return;
+        for (AutoCloseable resource : list)
+            try {
+                resource.close();
+            } catch (Throwable t) {
+                MLogUtil.log().d("close resource failed", resource, t);
+            }
+    }
+
+    @Override
+    public void write(CallContext context, PrintWriter writer) throws Exception {
+        // PrintWriter swallows errors, stop producing content if the client is gone
+        try (JsonGenerator generator = FACTORY.createGenerator(new CheckedWriter(writer))) {
+            write(context, generator);
+        }
+    }
+
+    @Override
+    public void write(CallContext context, OutputStream out) throws Exception {
+        try (JsonGenerator generator = JsonResult.createGenerator(out)) {
+            write(context, generator);
+        }
+    }
+
+    @Override
+    public void write(CallContext context, JsonGenerator generator) throws Exception {
+        try {
+            if (generator.getCodec() == null) generator.setCodec(JsonResult.getMapper());
+            if (array) {
+                generator.writeStartArray();
+                content.write(generator, context);
+                generator.writeEndArray();
+            } else {
+                generator.writeStartObject();
+                JsonResult.writeEnvelope(generator, id, context);
+                content.write(generator, context);
+                generator.writeEndObject();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public String getContentType(CallContext context) {
+        return "application/json";
+    }
+
+    @Override
+    public int getReturnCode() {
+        return returnCode;
+    }
+
+    public void setReturnCode(int returnCode) {
+        this.returnCode = returnCode;
+    }
+
+    public boolean isArray() {
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        // do not consume the content
+        return getClass().getSimpleName() + "#" + id + (array ? "[]" : "{}");
+    }
+
+    @FunctionalInterface
+    public interface Content {
+
+        /**
+         * Write the content into the open root object or array.
+         *
+         * @param generator The generator
+         * @param context The context of the call
+         * @throws Exception
+         */
+        void write(JsonGenerator generator, CallContext context) throws Exception;
+    }
+
+    private static class CheckedWriter extends Writer {
+
+        private final PrintWriter writer;
+
+        private CheckedWriter(PrintWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            writer.write(cbuf, off, len);
+            if (writer.checkError()) throw new IOException("client disconnected");
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            writer.write(str, off, len);
+            if (writer.checkError()) throw new IOException("client disconnected");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+            if (writer.checkError()) throw new IOException("client disconnected");
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
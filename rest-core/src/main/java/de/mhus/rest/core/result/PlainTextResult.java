@@ -15,6 +15,7 @@
  */
 package de.mhus.rest.core.result;
 
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
 import de.mhus.lib.core.MString;
@@ -39,6 +40,12 @@ public class PlainTextResult implements RestResult {
         writer.write(text);
     }
 
+    @Override
+    public void write(CallContext context, OutputStream out) throws Exception {
+        if (text == null) return;
+        out.write(text.getBytes(context.getResponseEncoding()));
+    }
+
     @Override
     public String getContentType(CallContext context) {
         return contentType;
@@ -15,8 +15,11 @@
  */
 package de.mhus.rest.core.result;
 
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -25,9 +28,12 @@ import de.mhus.lib.core.io.http.MHttp;
 import de.mhus.lib.core.pojo.MPojo;
 import de.mhus.lib.core.pojo.PojoModelFactory;
 import de.mhus.rest.core.CallContext;
-import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.transform.PojoSerializer;
 
-public class PojoResult implements RestResult {
+public class PojoResult implements JsonGeneratorResult {
+
+    private static final JsonFactory FACTORY =
+            new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
     private String contentType;
     private Object obj;
@@ -42,31 +48,57 @@ public class PojoResult implements RestResult {
     @Override
     public void write(CallContext context, PrintWriter writer) throws Exception {
         if (obj == null) return;
-        JsonResult json = new JsonResult();
+        try (JsonGenerator generator = FACTORY.createGenerator(writer)) {
+            write(context, generator);
+        }
+    }
+
+    @Override
+    public void write(CallContext context, OutputStream out) throws Exception {
+        if (obj == null) return;
+        try (JsonGenerator generator = JsonResult.createGenerator(out)) {
+            write(context, generator);
+        }
+    }
+
+    @Override
+    public void write(CallContext context, JsonGenerator generator) throws Exception {
+        if (obj == null) return;
+        if (generator.getCodec() == null) generator.setCodec(JsonResult.getMapper());
         PojoModelFactory factory = MPojo.getDefaultModelFactory();
         if (obj.getClass().isArray()) {
             if (obj.getClass().getComponentType().isPrimitive()) {
+                JsonResult json = new JsonResult();
                 ArrayNode jArray = json.createArrayNode();
                 for (Object aObj : (Object[]) obj) {
                     if (aObj == null) continue; // should not happen
                     MPojo.addJsonValue(jArray, aObj, factory, false, true, false);
                 }
+                json.write(context, generator);
             } else {
-                ArrayNode jArray = json.createArrayNode();
+                generator.writeStartArray();
                 for (Object aObj : (Object[]) obj) {
-                    ObjectNode jObj = jArray.objectNode();
-                    if (aObj != null) MPojo.pojoToJson(aObj, jObj, factory);
-                    jArray.add(jObj);
+                    if (aObj == null) {
+                        generator.writeStartObject();
+                        generator.writeEndObject();
+                    } else {
+                        PojoSerializer.of(aObj.getClass(), factory).write(aObj, generator, false);
+                    }
                 }
+                generator.writeEndArray();
             }
         } else if (obj.getClass().isPrimitive()) {
+            JsonResult json = new JsonResult();
             ObjectNode jObj = json.createObjectNode();
             MPojo.setJsonValue(jObj, "value", obj, factory, false, true, false);
+            json.write(context, generator);
         } else {
-            ObjectNode jObj = json.createObjectNode();
-            MPojo.pojoToJson(obj, jObj, factory);
+            long id = JsonResult.newId();
+            generator.writeStartObject();
+            JsonResult.writeEnvelope(generator, id, context);
+            PojoSerializer.of(obj.getClass(), factory).writeFields(obj, generator, false);
+            generator.writeEndObject();
         }
-        json.write(context, writer);
     }
 
     @Override
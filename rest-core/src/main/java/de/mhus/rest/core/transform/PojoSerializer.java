@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.transform;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.mhus.lib.core.MJson;
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.lib.core.pojo.MPojo;
+import de.mhus.lib.core.pojo.PojoAttribute;
+import de.mhus.lib.core.pojo.PojoModel;
+import de.mhus.lib.core.pojo.PojoModelFactory;
+
+/**
+ * Serializer of a pojo class created once per class and model factory. The attributes are taken
+ * from the pojo model of the factory, so the same filter rules apply (e.g. Public annotation and
+ * the '_' prefix). Attributes are read by MethodHandles and written directly into a
+ * JsonGenerator.
+ *
+ * <p>Only classes with attributes of simple types (strings, numbers and booleans) are compiled.
+ * All other classes and the verbose mode are serialized by MPojo to keep the output identical.
+ */
+public final class PojoSerializer {
+
+    private static final int MAX_FACTORIES = 16;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ConcurrentHashMap<PojoModelFactory, ClassValue<PojoSerializer>> CACHE =
+            new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final PojoModelFactory factory;
+    private final Accessor[] accessors;
+
+    private PojoSerializer(Class<?> type, PojoModelFactory factory) {
+        this.type = type;
+        this.factory = factory;
+        accessors = compile(type, factory);
+    }
+
+    /**
+     * Return the serializer for the class and factory.
+     *
+     * @param type The pojo class
+     * @param factory The model factory
+     * @return The serializer
+     */
+    public static PojoSerializer of(Class<?> type, PojoModelFactory factory) {
+        ClassValue<PojoSerializer> cache = CACHE.get(factory);
+        if (cache == null) {
+            // factories are expected to be singletons, do not cache temporary factories
+            if (CACHE.size() >= MAX_FACTORIES) return new PojoSerializer(type, factory);
+            cache =
+                    CACHE.computeIfAbsent(
+                            factory,
+                            f ->
+                                    new ClassValue<PojoSerializer>() {
+                                        @Override
+                                        protected PojoSerializer computeValue(Class<?> t) {
+                                            return new PojoSerializer(t, f);
+                                        }
+                                    });
+        }
+        return cache.get(type);
+    }
+
+    /**
+     * Return true if the class is compiled and not serialized by MPojo.
+     *
+     * @return true if compiled
+     */
+    public boolean isCompiled() {
+        return accessors != null;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Write the pojo as json object.
+     *
+     * @param pojo The pojo
+     * @param generator The generator
+     * @param verbose Verbose mode of MPojo
+     * @throws IOException
+     */
+    public void write(Object pojo, JsonGenerator generator, boolean verbose) throws IOException {
+        generator.writeStartObject();
+        writeFields(pojo, generator, verbose);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Write the attributes of the pojo as fields into the current object of the generator.
+     *
+     * @param pojo The pojo
+     * @param generator The generator positioned inside an object
+     * @param verbose Verbose mode of MPojo
+     * @throws IOException
+     */
+    public void writeFields(Object pojo, JsonGenerator generator, boolean verbose)
+            throws IOException {
+        if (accessors == null || verbose) {
+            ObjectNode jObj = MJson.createObjectNode();
+            toJson(pojo, jObj, verbose);
+            Iterator<Map.Entry<String, JsonNode>> fields = jObj.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                generator.writeFieldName(field.getKey());
+                MAPPER.writeTree(generator, field.getValue());
+            }
+            return;
+        }
+        for (Accessor accessor : accessors) {
+            Object value = accessor.get(pojo);
+            generator.writeFieldName(accessor.name);
+            if (value == null) generator.writeNull();
+            else if (value instanceof String) generator.writeString((String) value);
+            else if (value instanceof Integer) generator.writeNumber((Integer) value);
+            else if (value instanceof Long) generator.writeNumber((Long) value);
+            else if (value instanceof Boolean) generator.writeBoolean((Boolean) value);
+            else if (value instanceof Double) generator.writeNumber((Double) value);
+            else if (value instanceof Float) generator.writeNumber((Float) value);
+            else if (value instanceof Short) generator.writeNumber((Short) value);
+            else generator.writeString(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Fill the pojo attributes into the json object.
+     *
+     * @param pojo The pojo
+     * @param target The json object
+     * @param verbose Verbose mode of MPojo
+     * @throws IOException
+     */
+    public void toJson(Object pojo, ObjectNode target, boolean verbose) throws IOException {
+        if (accessors == null || verbose) {
+            if (verbose) MPojo.pojoToJson(pojo, target, factory, true);
+            else MPojo.pojoToJson(pojo, target, factory);
+            return;
+        }
+        for (Accessor accessor : accessors) {
+            Object value = accessor.get(pojo);
+            if (value == null) target.putNull(accessor.name);
+            else if (value instanceof String) target.put(accessor.name, (String) value);
+            else if (value instanceof Integer) target.put(accessor.name, (Integer) value);
+            else if (value instanceof Long) target.put(accessor.name, (Long) value);
+            else if (value instanceof Boolean) target.put(accessor.name, (Boolean) value);
+            else if (value instanceof Double) target.put(accessor.name, (Double) value);
+            else if (value instanceof Float) target.put(accessor.name, (Float) value);
+            else if (value instanceof Short) target.put(accessor.name, (Short) value);
+            else target.put(accessor.name, String.valueOf(value));
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Accessor[] compile(Class<?> type, PojoModelFactory factory) {
+        try {
+            PojoModel model = factory.createPojoModel(type);
+            ArrayList<Accessor> list = new ArrayList<>();
+            for (String name : model.getAttributeNames()) {
+                PojoAttribute attr = model.getAttribute(name);
+                if (attr == null || !attr.canRead()) continue;
+                if (!isSimple(attr.getType())) return null;
+                list.add(new Accessor(name, attr, findHandle(type, name)));
+            }
+            return list.toArray(new Accessor[list.size()]);
+        } catch (Throwable t) {
+            MLogUtil.log().d("compile pojo serializer failed", type, t);
+            return null;
+        }
+    }
+
+    private static boolean isSimple(Class<?> type) {
+        return type == String.class
+                || type == int.class
+                || type == Integer.class
+                || type == long.class
+                || type == Long.class
+                || type == boolean.class
+                || type == Boolean.class
+                || type == double.class
+                || type == Double.class
+                || type == float.class
+                || type == Float.class
+                || type == short.class
+                || type == Short.class;
+    }
+
+    /*
+     * Find the getter or field of the attribute. The pojo model uses lower case names, the match
+     * must be unique, otherwise the attribute itself is used.
+     */
+    private static MethodHandle findHandle(Class<?> type, String name) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType generic = MethodType.methodType(Object.class, Object.class);
+        try {
+            Method getter = null;
+            for (Method method : type.getMethods()) {
+                if (method.getParameterCount() != 0
+                        || method.getReturnType() == void.class
+                        || Modifier.isStatic(method.getModifiers())) continue;
+                String n = method.getName();
+                if (n.length() > 3 && n.startsWith("get") && n.substring(3).equalsIgnoreCase(name)
+                        || n.length() > 2
+                                && n.startsWith("is")
+                                && n.substring(2).equalsIgnoreCase(name)) {
+                    if (getter != null) return null;
+                    getter = method;
+                }
+            }
+            if (getter != null) {
+                getter.setAccessible(true);
+                return lookup.unreflect(getter).asType(generic);
+            }
+            Field field = null;
+            Class<?> current = type;
+            while (current != null && current != Object.class) {
+                for (Field f : current.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers()) || !f.getName().equalsIgnoreCase(name))
+                        continue;
+                    if (field != null) return null;
+                    field = f;
+                }
+                if (field != null) break;
+                current = current.getSuperclass();
+            }
+            if (field != null) {
+                field.setAccessible(true);
+                return lookup.unreflectGetter(field).asType(generic);
+            }
+        } catch (Throwable t) {
+            MLogUtil.log().d("can't bind pojo attribute", type, name, t);
+        }
+        return null;
+    }
+
+    private static class Accessor {
+
+        private final String name;
+
+        @SuppressWarnings("rawtypes")
+        private final PojoAttribute attribute;
+
+        private final MethodHandle handle;
+
+        @SuppressWarnings("rawtypes")
+        private Accessor(String name, PojoAttribute attribute, MethodHandle handle) {
+            this.name = name;
+            this.attribute = attribute;
+            this.handle = handle;
+        }
+
+        private Object get(Object pojo) throws IOException {
+            if (handle == null) return attribute.get(pojo);
+            try {
+                return (Object) handle.invokeExact(pojo);
+            } catch (IOException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IOException(t);
+            }
+        }
+    }
+}
@@ -17,30 +17,54 @@ package de.mhus.rest.core.transform;
 
 import java.io.IOException;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import de.mhus.lib.core.MJson;
 import de.mhus.lib.core.MLog;
-import de.mhus.lib.core.pojo.MPojo;
 import de.mhus.lib.core.pojo.PojoModelFactory;
 import de.mhus.rest.core.util.RestUtil;
 
-public class PojoTransformer extends MLog implements ObjectTransformer {
+public class PojoTransformer extends MLog implements StreamTransformer {
+
+    private final boolean customized;
+
+    public PojoTransformer() {
+        // subclasses with own toJsonNode() can't be streamed directly
+        boolean c = false;
+        try {
+            c = getClass().getMethod("toJsonNode", Object.class).getDeclaringClass()
+                    != PojoTransformer.class;
+        } catch (NoSuchMethodException e) {
+        }
+        customized = c;
+    }
 
     @Override
     public JsonNode toJsonNode(Object obj) {
 
-        PojoModelFactory schema = getPojoModelFactory();
         ObjectNode jRoot = MJson.createObjectNode();
         try {
-            MPojo.pojoToJson(obj, jRoot, schema, true);
+            PojoSerializer.of(obj.getClass(), getPojoModelFactory()).toJson(obj, jRoot, true);
         } catch (IOException e) {
             log().e("to json failed", obj, e);
         }
         return jRoot;
     }
 
+    @Override
+    public boolean write(Object obj, JsonGenerator generator) throws IOException {
+        if (customized) {
+            JsonNode node = toJsonNode(obj);
+            if (node == null) return false;
+            generator.writeTree(node);
+            return true;
+        }
+        PojoSerializer.of(obj.getClass(), getPojoModelFactory()).write(obj, generator, true);
+        return true;
+    }
+
     protected PojoModelFactory getPojoModelFactory() {
         return RestUtil.getPojoModelFactory();
     }
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.transform;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Transformer able to write an object directly into a JsonGenerator without creating a JsonNode.
+ */
+public interface StreamTransformer extends ObjectTransformer {
+
+    /**
+     * Write the object as json value or return false if it is not supported.
+     *
+     * @param obj The object
+     * @param generator The generator
+     * @return true if written
+     * @throws IOException
+     */
+    boolean write(Object obj, JsonGenerator generator) throws IOException;
+}
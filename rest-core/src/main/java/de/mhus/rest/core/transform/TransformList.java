@@ -15,12 +15,14 @@
  */
 package de.mhus.rest.core.transform;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 
-public class TransformList implements ObjectTransformer {
+public class TransformList implements StreamTransformer {
 
     protected List<ObjectTransformer> list = new ArrayList<>();
 
@@ -33,6 +35,22 @@ public class TransformList implements ObjectTransformer {
         return null;
     }
 
+    @Override
+    public boolean write(Object obj, JsonGenerator generator) throws IOException {
+        for (ObjectTransformer entry : list) {
+            if (entry instanceof StreamTransformer) {
+                if (((StreamTransformer) entry).write(obj, generator)) return true;
+                continue;
+            }
+            JsonNode node = entry.toJsonNode(obj);
+            if (node != null) {
+                generator.writeTree(node);
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void add(ObjectTransformer t) {
         list.add(t);
     }
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Bounded pool of byte buffers used to copy streams into the response. */
+public class BufferPool {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOL_SIZE = 64;
+
+    private static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger size = new AtomicInteger();
+
+    public static byte[] acquire() {
+        byte[] buffer = pool.poll();
+        if (buffer == null) return new byte[BUFFER_SIZE];
+        size.decrementAndGet();
+        return buffer;
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length != BUFFER_SIZE) return;
+        if (size.incrementAndGet() > MAX_POOL_SIZE) {
+            size.decrementAndGet();
+            return;
+        }
+        pool.offer(buffer);
+    }
+}
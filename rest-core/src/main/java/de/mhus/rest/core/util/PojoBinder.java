@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.function.Function;
+
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.lib.core.pojo.PojoAttribute;
+import de.mhus.lib.core.pojo.PojoModel;
+
+/**
+ * Fills a pojo from string values, e.g. request parameters. The writable attributes of the pojo
+ * model (see RestUtil.getPojoModelFactory()) are analyzed once per class and bound to converters.
+ * Attributes with a not supported type are ignored.
+ */
+public class PojoBinder {
+
+    private static final ClassValue<PojoBinder> BINDERS =
+            new ClassValue<PojoBinder>() {
+                @Override
+                protected PojoBinder computeValue(Class<?> type) {
+                    return new PojoBinder(type);
+                }
+            };
+
+    private final Class<?> type;
+    private final MethodHandle constructor;
+    private final Binding[] bindings;
+
+    @SuppressWarnings("rawtypes")
+    protected PojoBinder(Class<?> type) {
+        this.type = type;
+        MethodHandle c = null;
+        try {
+            Constructor<?> con = type.getDeclaredConstructor();
+            con.setAccessible(true);
+            c =
+                    MethodHandles.lookup()
+                            .unreflectConstructor(con)
+                            .asType(MethodType.methodType(Object.class));
+        } catch (Throwable t) {
+            MLogUtil.log().d("pojo without default constructor", type, t);
+        }
+        constructor = c;
+
+        ArrayList<Binding> b = new ArrayList<>();
+        PojoModel model = RestUtil.getPojoModelFactory().createPojoModel(type);
+        for (String name : model.getAttributeNames()) {
+            PojoAttribute attr = model.getAttribute(name);
+            if (attr == null || !attr.canWrite()) continue;
+            ValueConverter converter = ValueConverter.create(attr.getType());
+            if (converter == null) continue;
+            b.add(new Binding(name, attr, converter));
+        }
+        bindings = b.toArray(new Binding[b.size()]);
+    }
+
+    public static PojoBinder of(Class<?> type) {
+        return BINDERS.get(type);
+    }
+
+    /**
+     * Return true if the pojo can be created by the binder.
+     *
+     * @return true if a default constructor exists
+     */
+    public boolean canCreate() {
+        return constructor != null;
+    }
+
+    /**
+     * Create a new pojo and bind the values.
+     *
+     * @param source Provides the value for an attribute name or null
+     * @return The new pojo
+     * @throws Exception If the pojo can't be created or a value is not valid
+     */
+    public Object create(Function<String, String> source) throws Exception {
+        if (constructor == null)
+            throw new InstantiationException("no default constructor: " + type.getCanonicalName());
+        Object pojo;
+        try {
+            pojo = (Object) constructor.invokeExact();
+        } catch (Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new InstantiationException(t.toString());
+        }
+        bind(pojo, source);
+        return pojo;
+    }
+
+    /**
+     * Bind the values to an existing pojo. Attributes without value are not touched.
+     *
+     * @param pojo The pojo
+     * @param source Provides the value for an attribute name or null
+     * @throws Exception If a value is not valid
+     */
+    @SuppressWarnings("unchecked")
+    public void bind(Object pojo, Function<String, String> source) throws Exception {
+        for (Binding binding : bindings) {
+            String value = source.apply(binding.name);
+            if (value == null) continue;
+            Object converted;
+            try {
+                converted = binding.converter.convert(value);
+            } catch (Exception e) {
+                throw new IllegalArgumentException(binding.name, e);
+            }
+            binding.attribute.set(pojo, converted, false);
+        }
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    private static class Binding {
+
+        private final String name;
+        @SuppressWarnings("rawtypes")
+        private final PojoAttribute attribute;
+        private final ValueConverter converter;
+
+        @SuppressWarnings("rawtypes")
+        private Binding(String name, PojoAttribute attribute, ValueConverter converter) {
+            this.name = name;
+            this.attribute = attribute;
+            this.converter = converter;
+        }
+    }
+}
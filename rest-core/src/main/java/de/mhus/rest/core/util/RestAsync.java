@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.cfg.CfgString;
+import de.mhus.lib.core.logging.ITracer;
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.api.RestResult;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+/**
+ * Helpers for asynchronous nodes. Tasks executed in other threads must carry the shiro subject
+ * and the tracing span of the request, wrap them with wrap() or use supply().
+ *
+ * <p>With 'executorMode' set to 'virtual' the request handlers and asynchronous tasks are executed
+ * by virtual threads if the JVM supports them. Otherwise the default 'platform' mode is used:
+ * handlers run in the container threads and tasks in a fixed pool.
+ */
+public class RestAsync {
+
+    public static final CfgInt CFG_THREADS = new CfgInt(RestApi.class, "asyncThreads", 16);
+    public static final CfgString CFG_EXECUTOR_MODE =
+            new CfgString(RestApi.class, "executorMode", "platform");
+
+    public static final String MODE_VIRTUAL = "virtual";
+
+    // created once and read without lock, the request path calls the getters for every request
+    private static volatile ExecutorService executor;
+    private static volatile ExecutorService virtualExecutor;
+    private static volatile boolean virtualChecked;
+
+    /**
+     * Return the shared executor for asynchronous rest tasks. In virtual mode a virtual thread is
+     * used for each task.
+     *
+     * @return The executor
+     */
+    public static ExecutorService getExecutor() {
+        ExecutorService virtual = getHandlerExecutor();
+        if (virtual != null) return virtual;
+        ExecutorService current = executor;
+        if (current != null) return current;
+        synchronized (RestAsync.class) {
+            if (executor == null) {
+                AtomicInteger cnt = new AtomicInteger();
+                ThreadFactory factory =
+                        r -> {
+                            Thread thread = new Thread(r, "rest-async-" + cnt.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        };
+                executor =
+                        Executors.newFixedThreadPool(Math.max(1, CFG_THREADS.value()), factory);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Return the executor to run request handlers. The executor starts a virtual thread for each
+     * task.
+     *
+     * @return The executor or null if not in virtual mode or virtual threads are not supported
+     */
+    public static ExecutorService getHandlerExecutor() {
+        if (!MODE_VIRTUAL.equals(CFG_EXECUTOR_MODE.value())) return null;
+        if (virtualChecked) return virtualExecutor;
+        synchronized (RestAsync.class) {
+            if (!virtualChecked) {
+                try {
+                    // java 21+
+                    virtualExecutor =
+                            (ExecutorService)
+                                    Executors.class
+                                            .getMethod("newVirtualThreadPerTaskExecutor")
+                                            .invoke(null);
+                } catch (Throwable t) {
+                    MLogUtil.log().w("virtual threads not supported, use platform threads", t);
+                }
+                // set after the executor, a reader seeing the flag sees the executor
+                virtualChecked = true;
+            }
+            return virtualExecutor;
+        }
+    }
+
+    /**
+     * Stop the executors, called if the rest api is deactivated. Running tasks are interrupted.
+     * The executors are created again if used later.
+     */
+    public static synchronized void shutdown() {
+        virtualChecked = false;
+        if (executor != null) executor.shutdownNow();
+        if (virtualExecutor != null) virtualExecutor.shutdownNow();
+        executor = null;
+        virtualExecutor = null;
+    }
+
+    public static boolean isVirtual() {
+        return getHandlerExecutor() != null;
+    }
+
+    /**
+     * Bind the task to the subject and the tracing span of the current thread.
+     *
+     * @param task The task
+     * @return The bound task
+     */
+    public static <V> Callable<V> wrap(Callable<V> task) {
+        Subject subject = SecurityUtils.getSubject();
+        Span span = ITracer.get().current();
+        Callable<V> bound = subject.associateWith(task);
+        if (span == null) return bound;
+        return () -> {
+            try (Scope scope = ITracer.get().activate(span)) {
+                return bound.call();
+            }
+        };
+    }
+
+    /**
+     * Bind the task to the subject and the tracing span of the current thread.
+     *
+     * @param task The task
+     * @return The bound task
+     */
+    public static Runnable wrap(Runnable task) {
+        Subject subject = SecurityUtils.getSubject();
+        Span span = ITracer.get().current();
+        Runnable bound = subject.associateWith(task);
+        if (span == null) return bound;
+        return () -> {
+            try (Scope scope = ITracer.get().activate(span)) {
+                bound.run();
+            }
+        };
+    }
+
+    /**
+     * Execute the task with the shared executor in the context of the current request.
+     *
+     * @param task The task
+     * @return The result stage
+     */
+    public static CompletionStage<RestResult> supply(Callable<RestResult> task) {
+        return supply(task, getExecutor());
+    }
+
+    /**
+     * Execute the task with the executor in the context of the current request.
+     *
+     * @param task The task
+     * @param executor The executor
+     * @return The result stage
+     */
+    public static CompletionStage<RestResult> supply(
+            Callable<RestResult> task, Executor executor) {
+        CompletableFuture<RestResult> future = new CompletableFuture<>();
+        Callable<RestResult> bound = wrap(task);
+        executor.execute(
+                () -> {
+                    try {
+                        future.complete(bound.call());
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Execute the task in the current thread and return the result as completed stage.
+     *
+     * @param task The task
+     * @return The completed stage
+     */
+    public static CompletionStage<RestResult> call(Callable<RestResult> task) {
+        CompletableFuture<RestResult> future = new CompletableFuture<>();
+        try {
+            future.complete(task.call());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.util;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.mhus.lib.core.cfg.CfgInt;
+import de.mhus.lib.core.logging.MLogUtil;
+import de.mhus.rest.core.api.RestApi;
+
+/**
+ * Lock free generator of unique, time ordered ids in snowflake style. An id contains 41 bits of
+ * milliseconds since 2020-01-01, 10 bits of the node id and a 12 bit sequence. The node id is
+ * configured with 'nodeId' (0-1023), by default it's derived from the host name. The derived id
+ * can collide between the nodes of a cluster, configure the node id to get ids unique across
+ * the cluster. If more than 4096 ids are requested in one millisecond the time part runs ahead of
+ * the clock, ids stay unique and ordered.
+ *
+ * <p>Ids are larger than 2^53 and must be written as strings for javascript clients.
+ */
+public class RestIdGenerator {
+
+    public static final CfgInt CFG_NODE_ID = new CfgInt(RestApi.class, "nodeId", -1);
+
+    public static final long EPOCH = 1577836800000L; // 2020-01-01T00:00:00Z
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final RestIdGenerator INSTANCE = new RestIdGenerator();
+
+    // (time << SEQUENCE_BITS) | sequence of the last id
+    private final AtomicLong last = new AtomicLong();
+    private volatile long nodeId = -1;
+
+    public static RestIdGenerator instance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the next id.
+     *
+     * @return A unique id
+     */
+    public long next() {
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        while (true) {
+            long prev = last.get();
+            long next = now > prev ? now : prev + 1;
+            if (last.compareAndSet(prev, next)) {
+                long time = next >>> SEQUENCE_BITS;
+                return (time << (NODE_BITS + SEQUENCE_BITS))
+                        | (getNodeId() << SEQUENCE_BITS)
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    public long getNodeId() {
+        long id = nodeId;
+        if (id < 0) {
+            id = CFG_NODE_ID.value();
+            if (id < 0) {
+                id = defaultNodeId() & NODE_MASK;
+                MLogUtil.log()
+                        .w(
+                                "nodeId is not configured, ids can collide between cluster nodes",
+                                id);
+            }
+            id = id & NODE_MASK;
+            nodeId = id;
+        }
+        return id;
+    }
+
+    private static long defaultNodeId() {
+        try {
+            return InetAddress.getLocalHost().getHostName().hashCode();
+        } catch (Throwable t) {
+            return (long) (Math.random() * NODE_MASK);
+        }
+    }
+
+    /**
+     * Return the creation time of the id in milliseconds.
+     *
+     * @param id The id
+     * @return The time
+     */
+    public static long getTime(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * Return the node id part of the id.
+     *
+     * @param id The id
+     * @return The node id
+     */
+    public static long getNodeId(long id) {
+        return (id >>> SEQUENCE_BITS) & NODE_MASK;
+    }
+}
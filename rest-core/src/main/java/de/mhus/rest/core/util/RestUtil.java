@@ -16,12 +16,20 @@
 package de.mhus.rest.core.util;
 
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 import de.mhus.lib.annotations.generic.Public;
+import de.mhus.lib.core.io.http.MHttp;
 import de.mhus.lib.core.pojo.PojoModel;
 import de.mhus.lib.core.pojo.PojoModelFactory;
 import de.mhus.lib.core.pojo.PojoParser;
 import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.api.AsyncNode;
+import de.mhus.rest.core.api.Node;
+import de.mhus.rest.core.api.RestApi;
+import de.mhus.rest.core.api.RestPriority;
+import de.mhus.rest.core.api.RestResult;
+import de.mhus.rest.core.node.NodeDescriptor;
 
 public class RestUtil {
 
@@ -55,4 +63,119 @@ public class RestUtil {
     public static PojoModelFactory getPojoModelFactory() {
         return POJO_FACTORY;
     }
+
+    /**
+     * Check the permission for the operation of the call on the node. The operation depends on the
+     * method: read, create, update, delete or the name of the action.
+     *
+     * @param restApi The rest api
+     * @param item The node
+     * @param callContext The context of the call
+     */
+    public static void checkPermission(RestApi restApi, Node item, CallContext callContext) {
+        MHttp.METHOD method = callContext.getMethod();
+        if (method == null) return;
+        switch (method) {
+            case GET:
+                restApi.checkPermission(item, "read", callContext);
+                break;
+            case POST:
+                if (callContext.hasAction())
+                    restApi.checkPermission(item, callContext.getAction(), callContext);
+                else restApi.checkPermission(item, "create", callContext);
+                break;
+            case PUT:
+                restApi.checkPermission(item, "update", callContext);
+                break;
+            case DELETE:
+                restApi.checkPermission(item, "delete", callContext);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Return the priority class of the call. For actions the priority of the action is used if
+     * declared, otherwise the priority of the node.
+     *
+     * @param item The node
+     * @param callContext The context of the call
+     * @return The priority
+     */
+    public static RestPriority getPriority(Node item, CallContext callContext) {
+        String action =
+                callContext.getMethod() == MHttp.METHOD.POST && callContext.hasAction()
+                        ? callContext.getAction()
+                        : null;
+        return NodeDescriptor.of(item.getClass()).getPriority(action);
+    }
+
+    /**
+     * Execute the call on the node depending on the method. The permission must be checked
+     * before.
+     *
+     * @param item The node
+     * @param callContext The context of the call
+     * @return The result or null if the method is not supported
+     * @throws Exception
+     */
+    public static RestResult doRequest(Node item, CallContext callContext) throws Exception {
+        MHttp.METHOD method = callContext.getMethod();
+        if (method == null) return null;
+        switch (method) {
+            case GET:
+                return item.doRead(callContext);
+            case POST:
+                if (callContext.hasAction()) return item.doAction(callContext);
+                return item.doCreate(callContext);
+            case PUT:
+                return item.doUpdate(callContext);
+            case DELETE:
+                return item.doDelete(callContext);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Execute the call on an asynchronous node depending on the method. The permission must be
+     * checked before.
+     *
+     * @param item The node
+     * @param callContext The context of the call
+     * @return The result stage or null if the method is not supported
+     */
+    public static CompletionStage<RestResult> doRequestAsync(
+            AsyncNode item, CallContext callContext) {
+        MHttp.METHOD method = callContext.getMethod();
+        if (method == null) return null;
+        switch (method) {
+            case GET:
+                return item.doReadAsync(callContext);
+            case POST:
+                if (callContext.hasAction()) return item.doActionAsync(callContext);
+                return item.doCreateAsync(callContext);
+            case PUT:
+                return item.doUpdateAsync(callContext);
+            case DELETE:
+                return item.doDeleteAsync(callContext);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Check the permission and execute the call on the node.
+     *
+     * @param restApi The rest api
+     * @param item The node
+     * @param callContext The context of the call
+     * @return The result or null if the method is not supported
+     * @throws Exception
+     */
+    public static RestResult doRequest(RestApi restApi, Node item, CallContext callContext)
+            throws Exception {
+        checkPermission(restApi, item, callContext);
+        return doRequest(item, callContext);
+    }
 }
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import de.mhus.lib.core.logging.MLogUtil;
+
+/**
+ * Executes the tasks one after the other in the order of submission using another executor. Used
+ * to keep the order of messages of a web socket if they are processed by a thread pool or virtual
+ * threads.
+ *
+ * <p>With a capacity the queue is bounded. If it's full execute() blocks until a task is finished,
+ * for a web socket this stops reading messages until the handlers catch up. Tasks must not submit
+ * to their own executor in this case.
+ */
+public class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final int capacity;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running;
+
+    public SerialExecutor(Executor executor) {
+        this(executor, 0);
+    }
+
+    /**
+     * Create an executor with a bounded queue.
+     *
+     * @param executor The executor to run the tasks
+     * @param capacity The maximum of waiting tasks, 0 for unbounded
+     */
+    public SerialExecutor(Executor executor, int capacity) {
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (tasks) {
+            while (capacity > 0 && tasks.size() >= capacity) {
+                try {
+                    tasks.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("interrupted while queue is full");
+                }
+            }
+            tasks.add(task);
+            if (running) return;
+            running = true;
+        }
+        try {
+            executor.execute(this::runTasks);
+        } catch (RuntimeException e) {
+            synchronized (tasks) {
+                running = false;
+                tasks.clear();
+                tasks.notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private void runTasks() {
+        while (true) {
+            Runnable task;
+            synchronized (tasks) {
+                task = tasks.poll();
+                if (capacity > 0) tasks.notifyAll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                MLogUtil.log().d("task failed", task, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.util;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.UUID;
+
+import de.mhus.lib.core.MCast;
+
+/**
+ * Strict conversion of a request parameter string into a typed value. A converter is created once
+ * per type and throws an exception if the value is not valid.
+ */
+public interface ValueConverter {
+
+    ValueConverter STRING = v -> v;
+
+    /**
+     * Convert the value.
+     *
+     * @param value The value, not null
+     * @return The converted value
+     * @throws Exception If the value is not valid
+     */
+    Object convert(String value) throws Exception;
+
+    /**
+     * Create a converter for the type.
+     *
+     * @param type The target type
+     * @return The converter or null if the type is not supported
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static ValueConverter create(Class<?> type) {
+        if (type == String.class) return STRING;
+        if (type == int.class || type == Integer.class) return v -> Integer.valueOf(v.trim());
+        if (type == long.class || type == Long.class) return v -> Long.valueOf(v.trim());
+        if (type == short.class || type == Short.class) return v -> Short.valueOf(v.trim());
+        if (type == byte.class || type == Byte.class) return v -> Byte.valueOf(v.trim());
+        if (type == double.class || type == Double.class) return v -> Double.valueOf(v.trim());
+        if (type == float.class || type == Float.class) return v -> Float.valueOf(v.trim());
+        if (type == boolean.class || type == Boolean.class) return ValueConverter::toBoolean;
+        if (type == UUID.class) return v -> UUID.fromString(v.trim());
+        if (type == Date.class)
+            return v -> {
+                Date out = MCast.toDate(v, null);
+                if (out == null) throw new IllegalArgumentException("not a date");
+                return out;
+            };
+        if (type.isEnum()) {
+            HashMap<String, Object> values = new HashMap<>();
+            for (Object c : type.getEnumConstants())
+                values.put(((Enum) c).name().toUpperCase(Locale.ENGLISH), c);
+            return v -> {
+                Object out = values.get(v.trim().toUpperCase(Locale.ENGLISH));
+                if (out == null) throw new IllegalArgumentException("unknown value");
+                return out;
+            };
+        }
+        return null;
+    }
+
+    /**
+     * Return the default value of the type, it's null for not primitive types.
+     *
+     * @param type The type
+     * @return The default value
+     */
+    static Object getDefault(Class<?> type) {
+        if (!type.isPrimitive()) return null;
+        if (type == boolean.class) return Boolean.FALSE;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == double.class) return 0d;
+        if (type == float.class) return 0f;
+        if (type == char.class) return (char) 0;
+        return null;
+    }
+
+    static Boolean toBoolean(String value) {
+        switch (value.trim().toLowerCase(Locale.ENGLISH)) {
+            case "true":
+            case "yes":
+            case "on":
+            case "1":
+                return Boolean.TRUE;
+            case "false":
+            case "no":
+            case "off":
+            case "0":
+                return Boolean.FALSE;
+            default:
+                throw new IllegalArgumentException("not a boolean");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.rest.core.RestRouteTable.Route;
+import de.mhus.rest.core.api.RestNodeService;
+import de.mhus.rest.core.util.TimingHarness;
+
+/**
+ * Cost of the node lookup of a web socket message by node id for a growing number of registered
+ * nodes. The old implementation scanned all nodes and compared the class names, the time of the
+ * 'linear scan' rows grows with the nodes, the 'route table' rows should stay flat.
+ */
+public class RestRouteTableBenchmark {
+
+    private static final int OPERATIONS = 100_000;
+
+    @Test
+    public void benchmarkGetNode() throws Exception {
+        for (int size : new int[] {10, 100, 1000}) {
+            List<Route> routes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                routes.add(new Route(RestNodeService.ROOT_PARENT, "node" + i, createNode()));
+            RestRouteTable table = new RestRouteTable(routes);
+            String[] ids = new String[size];
+            for (int i = 0; i < size; i++)
+                ids[i] = routes.get(i).getService().getClass().getCanonicalName();
+
+            int[] cnt = new int[1];
+            TimingHarness.measure(
+                    "route table, nodes=" + size,
+                    OPERATIONS,
+                    () -> table.getNode(ids[cnt[0]++ % size]));
+            TimingHarness.measure(
+                    "linear scan, nodes=" + size,
+                    OPERATIONS / 10,
+                    () -> scan(table, ids[cnt[0]++ % size]));
+        }
+    }
+
+    // the lookup before the route table
+    private static RestNodeService scan(RestRouteTable table, String id) {
+        for (RestNodeService service : table.getRegistry().values())
+            if (service.getClass().getCanonicalName().equals(id)) return service;
+        return null;
+    }
+
+    // every proxy class loader defines a new class, the node id is the class name
+    private static RestNodeService createNode() {
+        ClassLoader loader = new ClassLoader(RestRouteTableBenchmark.class.getClassLoader()) {};
+        InvocationHandler handler =
+                (proxy, method, args) -> {
+                    if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                    if (method.getName().equals("equals")) return proxy == args[0];
+                    return null;
+                };
+        return (RestNodeService)
+                Proxy.newProxyInstance(loader, new Class<?>[] {RestNodeService.class}, handler);
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.multipart;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class MultipartReaderTest {
+
+    private static final String BOUNDARY = "----boundary42";
+
+    @Test
+    public void testSimpleParts() throws IOException {
+        String body =
+                "preamble\r\n"
+                        + part("a", "alpha")
+                        + part("b", "")
+                        + part("c", "gamma")
+                        + "--"
+                        + BOUNDARY
+                        + "--\r\nepilogue";
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            Map<String, StoredPart> parts = reader.storeAll();
+            assertEquals(3, parts.size());
+            assertEquals("alpha", parts.get("a").getString());
+            assertEquals("", parts.get("b").getString());
+            assertEquals(0, parts.get("b").getSize());
+            assertEquals("gamma", parts.get("c").getString());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testEmptyPart() throws IOException {
+        String body = part("a", "") + "--" + BOUNDARY + "--\r\n";
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            Part part = reader.next();
+            assertNotNull(part);
+            assertEquals("a", part.getName());
+            assertEquals(-1, part.getInputStream().read());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testMissingEpilogue() throws IOException {
+        // the closing delimiter is not followed by a line break
+        String body = part("a", "alpha") + "--" + BOUNDARY + "--";
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            assertEquals("alpha", reader.next().getString());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testMissingClosingDelimiter() throws IOException {
+        // the last delimiter is not closed by '--'
+        String body = part("a", "alpha") + "--" + BOUNDARY;
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            assertEquals("alpha", reader.next().getString());
+            assertThrows(IOException.class, () -> reader.next());
+        }
+        // the content ends without delimiter
+        body = part("a", "alpha") + part("b", "beta");
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            assertEquals("alpha", reader.next().getString());
+            Part part = reader.next();
+            assertThrows(IOException.class, () -> part.getString());
+        }
+    }
+
+    @Test
+    public void testTruncatedContent() throws IOException {
+        String body = part("a", "alpha");
+        body = body.substring(0, body.length() - 3);
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            Part part = reader.next();
+            assertThrows(IOException.class, () -> part.getString());
+        }
+    }
+
+    @Test
+    public void testBoundarySplitAcrossFills() throws IOException {
+        // content around the buffer size, delivered in chunks that split the delimiter
+        for (int size : new int[] {8180, 8190, 8192, 8200, 20000}) {
+            for (int chunk : new int[] {1, 3, 7, 4096, 8191}) {
+                String content = content(size);
+                String body =
+                        part("a", content) + part("b", "beta") + "--" + BOUNDARY + "--\r\n";
+                try (MultipartReader reader = reader(body, chunk, 0, 0, 0, 1024)) {
+                    Map<String, StoredPart> parts = reader.storeAll();
+                    String msg = "size=" + size + " chunk=" + chunk;
+                    assertEquals(content, parts.get("a").getString(), msg);
+                    assertFalse(parts.get("a").isInMemory(), msg);
+                    assertEquals("beta", parts.get("b").getString(), msg);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDelimiterPrefixInContent() throws IOException {
+        // content containing a partial delimiter must not end the part
+        String content = "x\r\n--" + BOUNDARY.substring(0, 5) + "y\r\n-";
+        String body = part("a", content) + "--" + BOUNDARY + "--\r\n";
+        try (MultipartReader reader = reader(body, 1, 0, 0, 0, 1024)) {
+            assertEquals(content, reader.next().getString());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testSkipUnreadPart() throws IOException {
+        String body = part("a", content(20000)) + part("b", "beta") + "--" + BOUNDARY + "--\r\n";
+        try (MultipartReader reader = reader(body, 100, 0, 0, 0, 1024)) {
+            Part a = reader.next();
+            assertEquals("a", a.getName());
+            assertEquals('0', a.getInputStream().read());
+            Part b = reader.next();
+            assertEquals("beta", b.getString());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testHeaders() throws IOException {
+        String body =
+                "--"
+                        + BOUNDARY
+                        + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.txt\""
+                        + "\r\nContent-Type: text/plain; charset=ISO-8859-1\r\n\r\n"
+                        + "\u00e4\r\n--"
+                        + BOUNDARY
+                        + "--\r\n";
+        InputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1));
+        try (MultipartReader reader = new MultipartReader(in, BOUNDARY, 0, 0, 0, 1024)) {
+            Part part = reader.next();
+            assertEquals("file", part.getName());
+            assertEquals("a.txt", part.getFileName());
+            assertTrue(part.isFile());
+            assertEquals("\u00e4", part.getString());
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws IOException {
+        String body = part("a", content(5000)) + "--" + BOUNDARY + "--\r\n";
+        try (MultipartReader reader = reader(body, 1024, 4000, 0, 0, 1024)) {
+            assertThrows(MultipartLimitException.class, () -> reader.storeAll());
+        }
+        try (MultipartReader reader = reader(body, 1024, 6000, 0, 0, 1024)) {
+            assertEquals(1, reader.storeAll().size());
+        }
+    }
+
+    @Test
+    public void testMaxPartSize() throws IOException {
+        String body =
+                part("a", content(100)) + part("b", content(101)) + "--" + BOUNDARY + "--\r\n";
+        try (MultipartReader reader = reader(body, 1024, 0, 100, 0, 1024)) {
+            assertEquals(100, reader.next().store().getSize());
+            Part b = reader.next();
+            assertThrows(MultipartLimitException.class, () -> b.store());
+        }
+    }
+
+    @Test
+    public void testSkippedPartNotLimited() throws IOException {
+        String body = part("a", content(500)) + part("b", "beta") + "--" + BOUNDARY + "--\r\n";
+        try (MultipartReader reader = reader(body, 1024, 0, 100, 0, 1024)) {
+            reader.next();
+            assertEquals("beta", reader.next().getString());
+        }
+    }
+
+    @Test
+    public void testMaxParts() throws IOException {
+        String body = part("a", "1") + part("b", "2") + part("c", "3") + "--" + BOUNDARY + "--";
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 2, 1024)) {
+            assertNotNull(reader.next());
+            assertNotNull(reader.next());
+            assertThrows(MultipartLimitException.class, () -> reader.next());
+        }
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 3, 1024)) {
+            assertEquals(3, reader.storeAll().size());
+        }
+    }
+
+    @Test
+    public void testMaxHeaderSize() throws IOException {
+        char[] value = new char[20 * 1024];
+        Arrays.fill(value, 'x');
+        String body =
+                "--"
+                        + BOUNDARY
+                        + "\r\nContent-Disposition: form-data; name=\"a\"\r\nX-Large: "
+                        + new String(value)
+                        + "\r\n\r\nalpha\r\n--"
+                        + BOUNDARY
+                        + "--\r\n";
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            assertThrows(MultipartLimitException.class, () -> reader.next());
+        }
+    }
+
+    @Test
+    public void testStoredPartClosedWithReader() throws IOException {
+        String body = part("a", content(5000)) + "--" + BOUNDARY + "--\r\n";
+        StoredPart part;
+        try (MultipartReader reader = reader(body, 1024, 0, 0, 0, 1024)) {
+            part = reader.next().store();
+            assertFalse(part.isInMemory());
+            assertEquals(5000, part.getSize());
+            assertEquals(content(5000), new String(readAll(part), StandardCharsets.UTF_8));
+        }
+        assertThrows(IOException.class, () -> part.getString());
+    }
+
+    @Test
+    public void testGetBoundary() {
+        assertEquals("abc", MultipartReader.getBoundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartReader.getBoundary("Multipart/Form-Data; boundary=\"a b\""));
+        assertNull(MultipartReader.getBoundary("multipart/form-data"));
+        assertNull(MultipartReader.getBoundary("application/json"));
+        assertNull(MultipartReader.getBoundary(null));
+    }
+
+    private static String part(String name, String content) {
+        return "--"
+                + BOUNDARY
+                + "\r\nContent-Disposition: form-data; name=\""
+                + name
+                + "\"\r\n\r\n"
+                + content
+                + "\r\n";
+    }
+
+    private static String content(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) sb.append((char) ('0' + i % 10));
+        return sb.toString();
+    }
+
+    private static byte[] readAll(StoredPart part) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream is = part.getInputStream()) {
+            byte[] b = new byte[1000];
+            int n;
+            while ((n = is.read(b)) >= 0) out.write(b, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static MultipartReader reader(
+            String body, int chunk, long maxSize, long maxPartSize, int maxParts, int threshold) {
+        InputStream in = new ChunkedInputStream(body.getBytes(StandardCharsets.UTF_8), chunk);
+        return new MultipartReader(in, BOUNDARY, maxSize, maxPartSize, maxParts, threshold);
+    }
+
+    /** Returns at most chunk bytes per read, like a slow network stream. */
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+
+        private final int chunk;
+
+        private ChunkedInputStream(byte[] data, int chunk) {
+            super(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.node;
+
+import java.lang.reflect.Method;
+
+import org.junit.jupiter.api.Test;
+
+import de.mhus.lib.core.pojo.MPojo;
+import de.mhus.rest.core.CallContext;
+import de.mhus.rest.core.annotation.RestAction;
+import de.mhus.rest.core.result.JsonResult;
+import de.mhus.rest.core.util.TimingHarness;
+
+/**
+ * Compares the action dispatch by precompiled invokers with the reflective dispatch used before:
+ * Method.invoke for annotated actions and getMethod() per request for on&lt;Action&gt; methods,
+ * including unknown actions.
+ */
+public class ActionInvokerBenchmark {
+
+    private static final int OPERATIONS = 1_000_000;
+
+    @Test
+    public void benchmarkAnnotatedAction() throws Exception {
+        AnnotatedNode node = new AnnotatedNode();
+        NodeDescriptor descriptor = NodeDescriptor.of(AnnotatedNode.class);
+        Method method = AnnotatedNode.class.getMethod("ping", JsonResult.class, CallContext.class);
+
+        TimingHarness.measure(
+                "annotated, Method.invoke",
+                OPERATIONS,
+                () -> {
+                    JsonResult result = new JsonResult();
+                    method.invoke(node, result, null);
+                    return result;
+                });
+        TimingHarness.measure(
+                "annotated, invoker",
+                OPERATIONS,
+                () -> descriptor.getAction("ping").invoke(node, null));
+    }
+
+    @Test
+    public void benchmarkOnAction() throws Exception {
+        OnActionNode node = new OnActionNode();
+        NodeDescriptor descriptor = NodeDescriptor.of(OnActionNode.class);
+
+        TimingHarness.measure(
+                "on<Action>, getMethod + invoke",
+                OPERATIONS,
+                () -> reflective(node, "ping"));
+        TimingHarness.measure(
+                "on<Action>, invoker",
+                OPERATIONS,
+                () -> descriptor.getAction("ping").invoke(node, null));
+        TimingHarness.measure(
+                "unknown action, getMethod", OPERATIONS / 10, () -> reflective(node, "unknown"));
+        TimingHarness.measure(
+                "unknown action, negative cache",
+                OPERATIONS,
+                () -> descriptor.getAction("unknown"));
+    }
+
+    // the dispatch of AbstractNode.doAction() before the invokers
+    private static JsonResult reflective(AbstractNode node, String action) throws Exception {
+        String methodName = "on" + MPojo.toFunctionName(action, true, null);
+        try {
+            JsonResult result = new JsonResult();
+            Method method =
+                    node.getClass().getMethod(methodName, JsonResult.class, CallContext.class);
+            method.invoke(node, result, null);
+            return result;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static class AnnotatedNode extends VoidNode {
+
+        private int count;
+
+        @RestAction(name = "ping")
+        public void ping(JsonResult result, CallContext callContext) {
+            count++;
+        }
+    }
+
+    public static class OnActionNode extends VoidNode {
+
+        private int count;
+
+        public void onPing(JsonResult result, CallContext callContext) {
+            count++;
+        }
+    }
+}
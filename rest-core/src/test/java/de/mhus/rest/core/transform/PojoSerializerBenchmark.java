@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.transform;
+
+import java.io.OutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.mhus.lib.core.MJson;
+import de.mhus.lib.core.pojo.MPojo;
+import de.mhus.lib.core.pojo.PojoModelFactory;
+import de.mhus.rest.core.transform.PojoSerializerTest.SimplePojo;
+import de.mhus.rest.core.util.RestUtil;
+import de.mhus.rest.core.util.TimingHarness;
+
+/**
+ * Compares the compiled serializer with the MPojo path used before, which builds an ObjectNode
+ * for every object and writes the tree.
+ */
+public class PojoSerializerBenchmark {
+
+    private static final int OPERATIONS = 200_000;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void benchmarkWrite() throws Exception {
+        PojoModelFactory factory = RestUtil.getPojoModelFactory();
+        PojoSerializer serializer = PojoSerializer.of(SimplePojo.class, factory);
+        SimplePojo pojo = new SimplePojo();
+        pojo.setName("alf");
+        pojo.setCount(42);
+        pojo.setSize(1L << 40);
+        pojo.setActive(true);
+        pojo.setFactor(1.5);
+
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(new NullOutputStream());
+        TimingHarness.measure(
+                "MPojo, tree",
+                OPERATIONS,
+                () -> {
+                    ObjectNode node = MJson.createObjectNode();
+                    MPojo.pojoToJson(pojo, node, factory);
+                    generator.writeTree(node);
+                    return node;
+                });
+        TimingHarness.measure(
+                "compiled, generator",
+                OPERATIONS,
+                () -> {
+                    serializer.write(pojo, generator, false);
+                    return generator;
+                });
+        TimingHarness.measure(
+                "compiled, tree",
+                OPERATIONS,
+                () -> {
+                    ObjectNode node = MJson.createObjectNode();
+                    serializer.toJson(pojo, node, false);
+                    return node;
+                });
+        generator.close();
+    }
+
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.transform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import de.mhus.lib.core.MJson;
+import de.mhus.lib.core.pojo.MPojo;
+import de.mhus.lib.core.pojo.PojoModelFactory;
+import de.mhus.rest.core.util.RestUtil;
+
+public class PojoSerializerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void testCompiledOutputEqualsMPojo() throws Exception {
+        PojoModelFactory factory = RestUtil.getPojoModelFactory();
+        PojoSerializer serializer = PojoSerializer.of(SimplePojo.class, factory);
+        assertTrue(serializer.isCompiled());
+
+        SimplePojo pojo = new SimplePojo();
+        pojo.setName("alf");
+        pojo.setCount(42);
+        pojo.setSize(1L << 40);
+        pojo.setActive(true);
+        pojo.setFactor(1.5);
+
+        for (boolean verbose : new boolean[] {false, true}) {
+            ObjectNode expected = MJson.createObjectNode();
+            if (verbose) MPojo.pojoToJson(pojo, expected, factory, true);
+            else MPojo.pojoToJson(pojo, expected, factory);
+
+            ObjectNode actual = MJson.createObjectNode();
+            serializer.toJson(pojo, actual, verbose);
+            assertEquals(expected, actual, "toJson verbose=" + verbose);
+
+            StringWriter out = new StringWriter();
+            JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+            serializer.write(pojo, generator, verbose);
+            generator.flush();
+            JsonNode written = MAPPER.readTree(out.toString());
+            assertEquals(
+                    MAPPER.readTree(MAPPER.writeValueAsString(expected)),
+                    written,
+                    "write verbose=" + verbose);
+        }
+    }
+
+    @Test
+    public void testNullValues() throws Exception {
+        PojoModelFactory factory = RestUtil.getPojoModelFactory();
+        PojoSerializer serializer = PojoSerializer.of(SimplePojo.class, factory);
+
+        SimplePojo pojo = new SimplePojo();
+        ObjectNode expected = MJson.createObjectNode();
+        MPojo.pojoToJson(pojo, expected, factory);
+        ObjectNode actual = MJson.createObjectNode();
+        serializer.toJson(pojo, actual, false);
+        assertEquals(expected, actual);
+    }
+
+    public static class SimplePojo {
+
+        private String name;
+        private int count;
+        private long size;
+        private boolean active;
+        private double factor;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive(boolean active) {
+            this.active = active;
+        }
+
+        public double getFactor() {
+            return factor;
+        }
+
+        public void setFactor(double factor) {
+            this.factor = factor;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.core.util;
+
+/**
+ * Minimal timing harness for the benchmarks of the module. Benchmark classes are named
+ * *Benchmark and are not executed by the default test run, start them explicitly, e.g.
+ * 'mvn test -Dtest=PojoSerializerBenchmark'. The numbers are only comparable on the same machine.
+ */
+public class TimingHarness {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+
+    /** Keeps results alive, the JIT must not remove the measured code. */
+    public static volatile int sink;
+
+    public interface Task {
+        Object run() throws Throwable;
+    }
+
+    /**
+     * Run the task in warmup and measured rounds and print the best time per operation.
+     *
+     * @param name The name printed with the result
+     * @param operations Operations per round
+     * @param task The task
+     * @return Nanoseconds per operation of the best round
+     * @throws Exception
+     */
+    public static double measure(String name, int operations, Task task) throws Exception {
+        for (int r = 0; r < WARMUP_ROUNDS; r++) round(operations, task);
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) best = Math.min(best, round(operations, task));
+        double perOp = (double) best / operations;
+        System.out.println(String.format("%-50s %12.1f ns/op", name, perOp));
+        return perOp;
+    }
+
+    private static long round(int operations, Task task) throws Exception {
+        int h = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            Object res;
+            try {
+                res = task.run();
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new Exception(t);
+            }
+            if (res != null) h += System.identityHashCode(res);
+        }
+        long time = System.nanoTime() - start;
+        sink += h;
+        return time;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2020 Mike Hummel (mh@mhus.de)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.mhus.rest.karaf;
+
+import java.util.Date;
+
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+import de.mhus.lib.core.M;
+import de.mhus.lib.core.console.ConsoleTable;
+import de.mhus.osgi.api.karaf.AbstractCmd;
+import de.mhus.rest.core.api.CachedResponse;
+import de.mhus.rest.core.api.ResponseCache;
+import de.mhus.rest.core.api.RestApi;
+
+@Command(scope = "mhus", name = "rest-cache", description = "Print or flush the rest response cache")
+@Service
+public class CmdRestCache extends AbstractCmd {
+
+    @Option(
+            name = "-f",
+            aliases = "--flush",
+            description = "Remove all cached responses",
+            required = false)
+    private boolean flush = false;
+
+    @Option(
+            name = "-i",
+            aliases = "--invalidate",
+            description = "Remove the cached responses of the node id",
+            required = false)
+    private String nodeId = null;
+
+    @Override
+    public Object execute2() throws Exception {
+
+        ResponseCache cache = M.l(RestApi.class).getResponseCache();
+        if (cache == null) {
+            System.out.println("Response cache is disabled");
+            return null;
+        }
+
+        if (flush) {
+            cache.clear();
+            System.out.println("OK");
+            return null;
+        }
+        if (nodeId != null) {
+            cache.invalidate(nodeId);
+            System.out.println("OK");
+            return null;
+        }
+
+        ConsoleTable table = new ConsoleTable(tblOpt);
+        table.setHeaderValues("Key", "Node Id", "Type", "Size", "Gzip", "Hits", "Created", "Expires");
+        long size = 0;
+        for (CachedResponse entry : cache.getEntries()) {
+            byte[] gzip = entry.getGzipContent();
+            table.addRowValues(
+                    entry.getKey(),
+                    entry.getNodeId(),
+                    entry.getContentType(),
+                    entry.getContent().length,
+                    gzip == null ? "" : gzip.length,
+                    entry.getHits(),
+                    new Date(entry.getCreated()),
+                    new Date(entry.getExpires()));
+            size += entry.getSize();
+        }
+        table.print();
+        System.out.println("Size: " + size);
+
+        return null;
+    }
+}
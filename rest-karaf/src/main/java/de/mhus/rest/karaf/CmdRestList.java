@@ -25,6 +25,7 @@ import org.apache.karaf.shell.api.action.lifecycle.Service;
 import de.mhus.lib.core.M;
 import de.mhus.lib.core.console.ConsoleTable;
 import de.mhus.osgi.api.karaf.AbstractCmd;
+import de.mhus.rest.core.RestBulkhead;
 import de.mhus.rest.core.api.RestApi;
 import de.mhus.rest.core.api.RestNodeService;
 import de.mhus.rest.core.node.AbstractNode;
@@ -50,18 +51,32 @@ public class CmdRestList extends AbstractCmd {
         }
 
         ConsoleTable table = new ConsoleTable(tblOpt);
-        table.setHeaderValues("Class", "Node Id", "Managed", "Parents", "Registrations");
+        table.setHeaderValues(
+                "Class",
+                "Node Id",
+                "Managed",
+                "Parents",
+                "Registrations",
+                "Active",
+                "Queue",
+                "Rejected");
         for (Entry<RestNodeService, LinkedList<String>> entry : list.entrySet()) {
             String managed = "";
             if (entry.getKey() instanceof AbstractNode)
                 managed = ((AbstractNode) entry.getKey()).getManagedClassName();
+            RestBulkhead bulkhead = restService.getBulkhead(entry.getKey());
 
             table.addRowValues(
                     entry.getKey().getClass().getCanonicalName(),
                     entry.getKey().getNodeName(),
                     managed,
                     entry.getKey().getParentNodeCanonicalClassNames(),
-                    entry.getValue());
+                    entry.getValue(),
+                    bulkhead == null
+                            ? ""
+                            : bulkhead.getActive() + "/" + bulkhead.getMaxConcurrent(),
+                    bulkhead == null ? "" : bulkhead.getWaiting() + "/" + bulkhead.getMaxQueue(),
+                    bulkhead == null ? "" : bulkhead.getRejected());
         }
         table.print();
 
@@ -16,6 +16,7 @@
 package de.mhus.rest.karaf;
 
 import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 
 import de.mhus.lib.core.M;
@@ -26,12 +27,20 @@ import de.mhus.rest.core.api.RestApi;
 @Service
 public class CmdRestReset extends AbstractCmd {
 
+    @Option(
+            name = "-p",
+            aliases = "--permissions",
+            description = "Only drop cached permission decisions",
+            required = false)
+    private boolean permissions = false;
+
     @Override
     public Object execute2() throws Exception {
 
         RestApi restService = M.l(RestApi.class);
 
-        restService.reset();
+        if (permissions) restService.invalidatePermissions();
+        else restService.reset();
 
         System.out.println("OK");
         return null;
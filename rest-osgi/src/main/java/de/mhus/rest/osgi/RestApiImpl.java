@@ -19,6 +19,7 @@ import java.io.IOException;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.shiro.realm.Realm;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.ComponentContext;
@@ -37,6 +38,8 @@ import de.mhus.rest.core.api.RestResult;
 import de.mhus.rest.core.api.RestSecurityService;
 import de.mhus.rest.core.api.RestTranslationService;
 import de.mhus.rest.core.impl.AbstractRestApi;
+import de.mhus.rest.core.nodes.BatchRestNode;
+import de.mhus.rest.core.util.RestAsync;
 
 @Component(immediate = true, service = RestApi.class)
 public class RestApiImpl extends AbstractRestApi {
@@ -45,6 +48,7 @@ public class RestApiImpl extends AbstractRestApi {
     private ServiceTracker<RestNodeService, RestNodeService> nodeTracker;
     private ServiceTracker<RestSecurityService, RestSecurityService> securityTracker;
     private ServiceTracker<RestTranslationService, RestTranslationService> translationTracker;
+    private ServiceTracker<Realm, Realm> realmTracker;
     public RestSecurityService securityService;
     public ServiceReference<RestSecurityService> securityReference;
     public RestTranslationService translationService;
@@ -71,18 +75,27 @@ public class RestApiImpl extends AbstractRestApi {
                         RestTranslationService.class,
                         new RestTranslationServiceTrackerCustomizer());
         translationTracker.open();
+
+        // cached permission decisions depend on the realms
+        realmTracker = new ServiceTracker<>(context, Realm.class, new RealmTrackerCustomizer());
+        realmTracker.open();
     }
 
     @Deactivate
     public void doDeactivate(ComponentContext ctx) {
         nodeTracker.close();
         securityTracker.close();
+        realmTracker.close();
         context = null;
         nodeTracker = null;
         securityTracker = null;
+        realmTracker = null;
         securityReference = null;
         securityService = null;
-        register.getRegistry().clear();
+        register.clear();
+        // the thread pools are static, stop them to not leak threads on bundle refresh
+        BatchRestNode.shutdown();
+        RestAsync.shutdown();
     }
 
     private class RestNodeServiceTrackerCustomizer
@@ -92,24 +105,7 @@ public class RestApiImpl extends AbstractRestApi {
         public RestNodeService addingService(ServiceReference<RestNodeService> reference) {
 
             RestNodeService service = context.getService(reference);
-            if (service != null) {
-                for (String x : service.getParentNodeCanonicalClassNames()) {
-                    if (x != null) {
-                        if (x.length() > 0
-                                && !x.contains(
-                                        ".")) // print a warning - class name without dot should be
-                            // a mistake
-                            log().w(
-                                            "Register RestNode with malformed parent name - should be a class",
-                                            service.getClass(),
-                                            service.getNodeName(),
-                                            x);
-                        String key = x + "-" + service.getNodeName();
-                        log().i("register", key, service.getClass().getCanonicalName());
-                        register.getRegistry().put(key, service);
-                    }
-                }
-            }
+            register.register(service);
 
             return service;
         }
@@ -124,14 +120,11 @@ public class RestApiImpl extends AbstractRestApi {
 
             if (service != null) {
 
-                String nodeId = service.getNodeName();
-                for (String x : service.getParentNodeCanonicalClassNames()) {
-                    if (x != null) {
-                        String key = x + "-" + nodeId;
-                        log().i("unregister", key, service.getClass().getCanonicalName());
-                        register.getRegistry().remove(key);
-                    }
-                }
+                // sockets are registered by node id, close them to drop the bound node
+                String nodeId = getNodeId(service);
+                register.unregister(service);
+                if (responseCache != null) responseCache.invalidate(nodeId);
+                bulkheads.remove(nodeId);
                 sockets.getClone(nodeId)
                         .forEach(v -> v.close(HttpServletResponse.SC_RESET_CONTENT, null));
                 sockets.remove(nodeId);
@@ -152,6 +145,7 @@ public class RestApiImpl extends AbstractRestApi {
                 securityReference = reference;
                 securityService = service;
                 log().i("Found Rest Security", securityReference.getBundle().getBundleId());
+                register.invalidatePermissions();
             }
 
             return service;
@@ -172,10 +166,33 @@ public class RestApiImpl extends AbstractRestApi {
                 log().i("Remove Rest Security", securityReference.getBundle().getBundleId());
                 securityReference = null;
                 securityService = null;
+                register.invalidatePermissions();
             }
         }
     }
 
+    private class RealmTrackerCustomizer implements ServiceTrackerCustomizer<Realm, Realm> {
+
+        @Override
+        public Realm addingService(ServiceReference<Realm> reference) {
+            Realm service = context.getService(reference);
+            log().d("Found Realm", reference.getBundle().getBundleId());
+            register.invalidatePermissions();
+            return service;
+        }
+
+        @Override
+        public void modifiedService(ServiceReference<Realm> reference, Realm service) {
+            register.invalidatePermissions();
+        }
+
+        @Override
+        public void removedService(ServiceReference<Realm> reference, Realm service) {
+            log().d("Remove Realm", reference.getBundle().getBundleId());
+            register.invalidatePermissions();
+        }
+    }
+
     private class RestTranslationServiceTrackerCustomizer
             implements ServiceTrackerCustomizer<RestTranslationService, RestTranslationService> {
 
@@ -210,26 +227,10 @@ public class RestApiImpl extends AbstractRestApi {
 
     @Override
     public void reset() {
-        register.getRegistry().clear();
-        for (RestNodeService service : MOsgi.getServices(RestNodeService.class, null)) {
-
-            for (String x : service.getParentNodeCanonicalClassNames()) {
-                if (x != null) {
-                    if (x.length() > 0
-                            && !x.contains(
-                                    ".")) // print a warning - class name without dot should be
-                        // a mistake
-                        log().w(
-                                        "Register RestNode with malformed parent name - should be a class",
-                                        service.getClass(),
-                                        service.getNodeName(),
-                                        x);
-                    String key = x + "-" + service.getNodeName();
-                    log().i("register", key, service.getClass().getCanonicalName());
-                    register.getRegistry().put(key, service);
-                }
-            }
-        }
+        register.reset(MOsgi.getServices(RestNodeService.class, null));
+        if (responseCache != null) responseCache.clear();
+        // limits are read from the configuration again
+        bulkheads.clear();
     }
 
     @Override